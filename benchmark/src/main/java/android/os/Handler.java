@@ -0,0 +1,24 @@
+package android.os;
+
+/**
+ * JVM stand-in of the framework Handler, posts runnables to the queue of its {@link Looper}.
+ */
+public class Handler {
+
+    private final Looper looper;
+
+    public Handler(Looper looper) {
+        if (looper == null) {
+            throw new NullPointerException();
+        }
+        this.looper = looper;
+    }
+
+    public final boolean post(Runnable r) {
+        return looper.queue.offer(r);
+    }
+
+    public final Looper getLooper() {
+        return looper;
+    }
+}
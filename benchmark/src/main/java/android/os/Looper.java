@@ -0,0 +1,94 @@
+package android.os;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * JVM stand-in of the framework Looper, just enough for Schedulers to run off-device.
+ * The main looper is a daemon thread named "main" started on first use.
+ */
+public final class Looper {
+
+    private static final ThreadLocal<Looper> LOCAL = new ThreadLocal<>();
+
+    private static volatile Looper sMainLooper;
+
+    final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+
+    private final Thread thread;
+
+    private Looper() {
+        thread = Thread.currentThread();
+    }
+
+    public static void prepare() {
+        if (LOCAL.get() != null) {
+            throw new RuntimeException("Only one Looper may be created per thread");
+        }
+        LOCAL.set(new Looper());
+    }
+
+    public static Looper myLooper() {
+        return LOCAL.get();
+    }
+
+    public static Looper getMainLooper() {
+        Looper looper = sMainLooper;
+        if (looper == null) {
+            synchronized (Looper.class) {
+                looper = sMainLooper;
+                if (looper == null) {
+                    sMainLooper = looper = startMainLooper();
+                }
+            }
+        }
+        return looper;
+    }
+
+    public static void loop() {
+        Looper me = myLooper();
+        if (me == null) {
+            throw new RuntimeException("No Looper; Looper.prepare() wasn't called on this thread.");
+        }
+        for (; ; ) {
+            try {
+                me.queue.take().run();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    public Thread getThread() {
+        return thread;
+    }
+
+    public boolean isCurrentThread() {
+        return thread == Thread.currentThread();
+    }
+
+    private static Looper startMainLooper() {
+        Looper[] holder = new Looper[1];
+        Thread t = new Thread(() -> {
+            prepare();
+            synchronized (holder) {
+                holder[0] = myLooper();
+                holder.notifyAll();
+            }
+            loop();
+        }, "main");
+        t.setDaemon(true);
+        t.start();
+        synchronized (holder) {
+            while (holder[0] == null) {
+                try {
+                    holder.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        return holder[0];
+    }
+}
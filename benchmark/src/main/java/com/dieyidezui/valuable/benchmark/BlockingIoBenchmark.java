@@ -0,0 +1,67 @@
+package com.dieyidezui.valuable.benchmark;
+
+import com.dieyidezui.valuable.Scheduler;
+import com.dieyidezui.valuable.Valuable;
+import com.dieyidezui.valuable.shedulers.Schedulers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * n concurrent blocking calls on io() against virtualIo(), virtualIo() falls back to io() before JDK 21.
+ * created by dieyidezui on 2018/12/18.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BlockingIoBenchmark {
+
+    @Param({"io", "virtualIo"})
+    String scheduler;
+
+    @Param({"10000"})
+    int calls;
+
+    @Param({"10"})
+    long blockMillis;
+
+    private Scheduler target;
+
+    @Setup
+    public void setup() {
+        target = "io".equals(scheduler) ? Schedulers.io() : Schedulers.virtualIo();
+    }
+
+    @Benchmark
+    public int blockingCalls() {
+        List<Valuable<Integer>> valuables = new ArrayList<>(calls);
+        for (int i = 0; i < calls; i++) {
+            final int n = i;
+            valuables.add(Valuable.call(() -> {
+                Thread.sleep(blockMillis);
+                return n;
+            }, target));
+        }
+        int sum = 0;
+        for (Valuable<Integer> v : valuables) {
+            sum += v.get();
+        }
+        return sum;
+    }
+}
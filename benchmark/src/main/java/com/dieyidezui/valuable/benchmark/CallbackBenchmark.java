@@ -0,0 +1,75 @@
+package com.dieyidezui.valuable.benchmark;
+
+import com.dieyidezui.valuable.Valuable;
+import com.dieyidezui.valuable.function.Consumer;
+import com.dieyidezui.valuable.shedulers.Schedulers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * success / complete registration before and after completion, with a fan-out of n consumers.
+ * created by dieyidezui on 2018/12/10.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CallbackBenchmark {
+
+    @Param({"1", "10", "100"})
+    int consumers;
+
+    @Benchmark
+    public void successBeforeComplete(Blackhole bh) {
+        Valuable<Object> v = Valuable.empty(Schedulers.immediate());
+        Consumer<Object> consumer = bh::consume;
+        for (int i = 0; i < consumers; i++) {
+            v.success(consumer);
+        }
+        v.notifyResult(bh);
+    }
+
+    @Benchmark
+    public void successAfterComplete(Blackhole bh) {
+        Valuable<Object> v = Valuable.result(bh);
+        Consumer<Object> consumer = bh::consume;
+        for (int i = 0; i < consumers; i++) {
+            v.success(consumer, Schedulers.immediate());
+        }
+    }
+
+    @Benchmark
+    public void completeBeforeComplete(Blackhole bh) {
+        Valuable<Object> v = Valuable.empty(Schedulers.immediate());
+        Consumer<Object> consumer = bh::consume;
+        Consumer<Exception> handler = bh::consume;
+        for (int i = 0; i < consumers; i++) {
+            v.complete(consumer, handler);
+        }
+        v.notifyResult(bh);
+    }
+
+    @Benchmark
+    public void completeAfterComplete(Blackhole bh) {
+        Valuable<Object> v = Valuable.result(bh);
+        Consumer<Object> consumer = bh::consume;
+        Consumer<Exception> handler = bh::consume;
+        for (int i = 0; i < consumers; i++) {
+            v.complete(consumer, handler, Schedulers.immediate());
+        }
+    }
+}
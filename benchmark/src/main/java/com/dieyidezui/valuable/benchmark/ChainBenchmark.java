@@ -0,0 +1,89 @@
+package com.dieyidezui.valuable.benchmark;
+
+import com.dieyidezui.valuable.Valuable;
+import com.dieyidezui.valuable.shedulers.Schedulers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * map / flatMap / onErrorResume chains of increasing depth.
+ * The source is on the immediate scheduler so only the operators are measured,
+ * except for the computation variant which pays one hop at the head.
+ * The pending variant builds the chain before the source completes.
+ * created by dieyidezui on 2018/12/10.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChainBenchmark {
+
+    @Param({"1", "4", "16", "64"})
+    int depth;
+
+    private final Exception error = new Exception("benchmark");
+
+    @Benchmark
+    public Integer map() {
+        Valuable<Integer> v = Valuable.result(0);
+        for (int i = 0; i < depth; i++) {
+            v = v.map(x -> x + 1);
+        }
+        return v.get();
+    }
+
+    @Benchmark
+    public Integer mapPending() {
+        Valuable<Integer> source = Valuable.empty(Schedulers.immediate());
+        Valuable<Integer> v = source;
+        for (int i = 0; i < depth; i++) {
+            v = v.map(x -> x + 1);
+        }
+        source.notifyResult(0);
+        return v.get();
+    }
+
+    @Benchmark
+    public Integer mapComputation() {
+        Valuable<Integer> v = Valuable.supply(() -> 0);
+        for (int i = 0; i < depth; i++) {
+            v = v.map(x -> x + 1);
+        }
+        return v.get();
+    }
+
+    @Benchmark
+    public Integer flatMap() {
+        Valuable<Integer> v = Valuable.result(0);
+        for (int i = 0; i < depth; i++) {
+            v = v.flatMap(x -> Valuable.result(x + 1));
+        }
+        return v.get();
+    }
+
+    @Benchmark
+    public Integer onErrorResume() {
+        Valuable<Integer> v = Valuable.call(() -> {
+            throw error;
+        }, Schedulers.immediate());
+        for (int i = 0; i < depth; i++) {
+            v = v.onErrorResume(e -> {
+                throw e;
+            });
+        }
+        return v.onErrorReturn(depth).get();
+    }
+}
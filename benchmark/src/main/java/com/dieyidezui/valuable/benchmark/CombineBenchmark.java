@@ -0,0 +1,72 @@
+package com.dieyidezui.valuable.benchmark;
+
+import com.dieyidezui.valuable.Valuable;
+import com.dieyidezui.valuable.shedulers.Schedulers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fan-in of n inputs, both when the inputs are already completed and when they complete after combine.
+ * pendingAllOf is the typed counterpart of pendingInputs.
+ * created by dieyidezui on 2018/12/10.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+@SuppressWarnings("unchecked")
+public class CombineBenchmark {
+
+    @Param({"2", "10", "100", "1000", "10000"})
+    int size;
+
+    @Benchmark
+    public Object completedInputs() {
+        List<Valuable<?>> inputs = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            inputs.add(Valuable.result(i));
+        }
+        return Valuable.combine(objects -> objects.length, inputs, Schedulers.immediate()).get();
+    }
+
+    @Benchmark
+    public Object pendingInputs() {
+        List<Valuable<?>> inputs = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            inputs.add(Valuable.empty(Schedulers.immediate()));
+        }
+        Valuable<Integer> combined = Valuable.combine(objects -> objects.length, inputs, Schedulers.immediate());
+        for (int i = 0; i < size; i++) {
+            ((Valuable<Integer>) inputs.get(i)).notifyResult(i);
+        }
+        return combined.get();
+    }
+
+    @Benchmark
+    public Object pendingAllOf() {
+        List<Valuable<Integer>> inputs = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            inputs.add(Valuable.empty(Schedulers.immediate()));
+        }
+        Valuable<List<Integer>> all = Valuable.allOf(inputs);
+        for (int i = 0; i < size; i++) {
+            inputs.get(i).notifyResult(i);
+        }
+        return all.get();
+    }
+}
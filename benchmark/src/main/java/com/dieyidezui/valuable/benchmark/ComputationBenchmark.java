@@ -0,0 +1,87 @@
+package com.dieyidezui.valuable.benchmark;
+
+import com.dieyidezui.valuable.Scheduler;
+import com.dieyidezui.valuable.Valuable;
+import com.dieyidezui.valuable.shedulers.Schedulers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Short continuations hopping through computation() on 1, 4 and N cores, with as many submitting threads as cores.
+ * "pool" is the former fixed ThreadPoolExecutor sharing one LinkedBlockingQueue.
+ * The core count is set with -XX:ActiveProcessorCount, which sizes both pools but does not pin the fork to physical cores;
+ * run under {@code taskset -c 0} / {@code taskset -c 0-3} for numbers on exactly 1 / 4 cores.
+ * created by dieyidezui on 2018/12/20.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ComputationBenchmark {
+
+    @Param({"stealing", "pool"})
+    String executor;
+
+    @Param({"8"})
+    int hops;
+
+    private Scheduler scheduler;
+
+    @Setup
+    public void setup() {
+        if ("stealing".equals(executor)) {
+            scheduler = Schedulers.computation();
+        } else {
+            int available = Runtime.getRuntime().availableProcessors();
+            Executor pool = new ThreadPoolExecutor(available, available,
+                    0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+            scheduler = Schedulers.from("fixed", pool);
+        }
+    }
+
+    private Integer continuations() {
+        Valuable<Integer> v = Valuable.supply(() -> 0, scheduler);
+        for (int i = 0; i < hops; i++) {
+            v = v.flatMap(x -> Valuable.supply(() -> x + 1, scheduler));
+        }
+        return v.get();
+    }
+
+    @Benchmark
+    @Threads(1)
+    @Fork(value = 1, jvmArgsAppend = "-XX:ActiveProcessorCount=1")
+    public Integer cores1() {
+        return continuations();
+    }
+
+    @Benchmark
+    @Threads(4)
+    @Fork(value = 1, jvmArgsAppend = "-XX:ActiveProcessorCount=4")
+    public Integer cores4() {
+        return continuations();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Integer coresMax() {
+        return continuations();
+    }
+}
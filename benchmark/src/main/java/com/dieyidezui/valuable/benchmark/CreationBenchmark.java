@@ -0,0 +1,56 @@
+package com.dieyidezui.valuable.benchmark;
+
+import com.dieyidezui.valuable.Valuable;
+import com.dieyidezui.valuable.shedulers.Schedulers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the factory methods, a Valuable is created and then read.
+ * created by dieyidezui on 2018/12/10.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CreationBenchmark {
+
+    private final Object value = new Object();
+
+    @Benchmark
+    public Object result() {
+        return Valuable.result(value).get();
+    }
+
+    @Benchmark
+    public Object supplyImmediate() {
+        return Valuable.supply(() -> value, Schedulers.immediate()).get();
+    }
+
+    @Benchmark
+    public Object supplyComputation() {
+        return Valuable.supply(() -> value).get();
+    }
+
+    @Benchmark
+    public Object callImmediate() {
+        return Valuable.call(() -> value, Schedulers.immediate()).get();
+    }
+
+    @Benchmark
+    public Object callIo() {
+        return Valuable.call(() -> value).get();
+    }
+}
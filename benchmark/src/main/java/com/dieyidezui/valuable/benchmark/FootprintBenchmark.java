@@ -0,0 +1,67 @@
+package com.dieyidezui.valuable.benchmark;
+
+import com.dieyidezui.valuable.Valuable;
+import com.dieyidezui.valuable.shedulers.Schedulers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bytes allocated per node, read gc.alloc.rate.norm with the GC profiler.
+ * <pre>
+ *                        before   after
+ * emptyNode              208 B    32 B
+ * completedNode          232 B    32 B
+ * completedWithConsumer  280 B    64 B
+ * mapChain3             1336 B   296 B
+ * </pre>
+ * created by dieyidezui on 2018/12/12.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FootprintBenchmark {
+
+    private final Object value = new Object();
+
+    @Benchmark
+    public Object emptyNode() {
+        return Valuable.empty(Schedulers.immediate());
+    }
+
+    @Benchmark
+    public Object completedNode() {
+        Valuable<Object> v = Valuable.empty(Schedulers.immediate());
+        v.notifyResult(value);
+        return v;
+    }
+
+    @Benchmark
+    public Object completedWithConsumer() {
+        Valuable<Object> v = Valuable.empty(Schedulers.immediate());
+        v.success(o -> {
+        });
+        v.notifyResult(value);
+        return v;
+    }
+
+    @Benchmark
+    public Object mapChain3() {
+        return Valuable.result(value)
+                .map(o -> o)
+                .map(o -> o)
+                .map(o -> o);
+    }
+}
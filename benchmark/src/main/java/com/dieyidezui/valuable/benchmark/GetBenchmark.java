@@ -0,0 +1,46 @@
+package com.dieyidezui.valuable.benchmark;
+
+import com.dieyidezui.valuable.Valuable;
+import com.dieyidezui.valuable.shedulers.Schedulers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Blocking get(), on a completed Valuable and on one completed by another thread.
+ * created by dieyidezui on 2018/12/10.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GetBenchmark {
+
+    private final Valuable<Object> completed = Valuable.result(new Object());
+
+    @Benchmark
+    public Object getCompleted() {
+        return completed.get();
+    }
+
+    @Benchmark
+    public Object getSingle() {
+        return Valuable.supply(Object::new, Schedulers.single()).get();
+    }
+
+    @Benchmark
+    public Object getMain() {
+        return Valuable.supply(Object::new, Schedulers.main()).get();
+    }
+}
@@ -3,7 +3,14 @@ package com.dieyidezui.valuable;
 import android.os.Looper;
 import android.support.test.runner.AndroidJUnit4;
 
+import com.dieyidezui.valuable.exceptions.TimeoutException;
 import com.dieyidezui.valuable.exceptions.ValuableException;
+import com.dieyidezui.valuable.metrics.Histogram;
+import com.dieyidezui.valuable.metrics.SchedulerMetrics;
+import com.dieyidezui.valuable.metrics.SchedulerSnapshot;
+import com.dieyidezui.valuable.metrics.StageMetrics;
+import com.dieyidezui.valuable.shedulers.PoolStats;
+import com.dieyidezui.valuable.shedulers.Priority;
 import com.dieyidezui.valuable.shedulers.Schedulers;
 import com.dieyidezui.valuable.function.Function;
 
@@ -12,7 +19,18 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * created by dieyidezui on 2018/8/2.
@@ -321,6 +339,50 @@ public class ValuableTest {
                 .map(String::length, Schedulers.computation()).scheduler(), Schedulers.computation());
     }
 
+    @Test
+    public void testComputationInboxNotStarved() throws InterruptedException {
+        // 每个 worker 都在执行不断重新提交自己的任务，其他线程提交的任务仍然能执行
+        int n = Runtime.getRuntime().availableProcessors();
+        Executor executor = Schedulers.computation().executor();
+        AtomicBoolean stop = new AtomicBoolean();
+        CountDownLatch started = new CountDownLatch(n);
+        for (int i = 0; i < n; i++) {
+            executor.execute(new Runnable() {
+                boolean first = true;
+
+                @Override
+                public void run() {
+                    if (first) {
+                        first = false;
+                        started.countDown();
+                    }
+                    if (!stop.get()) {
+                        executor.execute(this);
+                    }
+                }
+            });
+        }
+        started.await();
+        try {
+            Assert.assertEquals("OK", Valuable.call(() -> "OK", Schedulers.computation()).get(5, TimeUnit.SECONDS));
+        } finally {
+            stop.set(true);
+        }
+    }
+
+    @Test
+    public void testComputationSurvivesError() {
+        // 每个工作线程都抛出 Error 之后，计算线程池仍然可用
+        int n = Runtime.getRuntime().availableProcessors() * 2;
+        for (int i = 0; i < n; i++) {
+            Schedulers.computation().schedule(() -> {
+                throw new AssertionError("expected");
+            });
+        }
+        Assert.assertEquals(2, Valuable.result("OK", Schedulers.computation())
+                .map(String::length, Schedulers.computation()).get().intValue());
+    }
+
     @Test
     public void testScheduler4() throws InterruptedException {
         Valuable[] v = new Valuable[1];
@@ -338,4 +400,925 @@ public class ValuableTest {
         Thread.sleep(10);
         Assert.assertTrue(v[0].isCanceled());
     }
+
+    @Test
+    public void testConcurrentRegister() throws InterruptedException {
+        for (int round = 0; round < 100; round++) {
+            Valuable<String> v = Valuable.empty(Schedulers.immediate());
+            AtomicInteger called = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(4);
+            for (int i = 0; i < 4; i++) {
+                new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                    for (int j = 0; j < 100; j++) {
+                        v.success(s -> called.incrementAndGet(), Schedulers.immediate());
+                    }
+                    done.countDown();
+                }).start();
+            }
+            start.countDown();
+            v.notifyResult("OK");
+            Assert.assertEquals("OK", v.get());
+            done.await();
+            Assert.assertEquals(400, called.get());
+        }
+    }
+
+    @Test
+    public void testMapChain() {
+        Valuable<Integer> source = Valuable.empty(Schedulers.immediate());
+        Valuable<Integer> first = source.map(i -> i + 1);
+        Valuable<Integer> last = first.map(i -> i * 2)
+                .map((Function<Integer, Integer>) i -> {
+                    throw new IOException("OMG");
+                })
+                .onErrorResume(e -> -1)
+                .map(i -> i - 1);
+        int[] seen = new int[1];
+        first.success(i -> seen[0] = i);
+        source.notifyResult(1);
+        Assert.assertEquals(-2, last.get().intValue());
+        Assert.assertEquals(2, seen[0]);
+        Assert.assertEquals(2, first.get().intValue());
+    }
+
+    @Test
+    public void testMapChainCallbackError() {
+        Valuable<Integer> source = Valuable.empty(Schedulers.immediate());
+        Valuable<Integer> middle = source.map(i -> i, Schedulers.immediate());
+        middle.success(i -> {
+            throw new IllegalStateException();
+        }, Schedulers.immediate());
+        Valuable<Integer> last = middle.map(i -> i + 1, Schedulers.immediate());
+        try {
+            source.notifyResult(1);
+            throw new AssertionError();
+        } catch (IllegalStateException ignored) {
+        }
+        // 回调的异常不能让融合的下游停在半路
+        Assert.assertEquals(2, last.get(1, TimeUnit.SECONDS).intValue());
+    }
+
+    @Test
+    public void testMapChainCancel() {
+        Valuable<Integer> source = Valuable.empty(Schedulers.immediate());
+        Valuable<Integer> middle = source.map(i -> i + 1);
+        Valuable<Integer> last = middle.map(i -> i + 1).map(i -> i + 1);
+        last.cancel();
+        Assert.assertTrue(middle.isCanceled());
+        Assert.assertTrue(source.isCanceled());
+
+        Valuable<Integer> source2 = Valuable.empty(Schedulers.immediate());
+        Valuable<Integer> last2 = source2.map(i -> i + 1).map(i -> i + 1);
+        Valuable<Integer> resumed = last2.onErrorResume(e -> e instanceof ValuableException ? -1 : 0);
+        source2.cancel();
+        try {
+            last2.get();
+            throw new AssertionError();
+        } catch (ValuableException e) {
+            Assert.assertEquals(e.getMessage(), "Canceled");
+        }
+        Assert.assertEquals(-1, resumed.get().intValue());
+    }
+
+    @Test
+    public void testTrampoline() {
+        Valuable<Integer> source = Valuable.empty(Schedulers.trampoline());
+        Valuable<Integer> v = source;
+        for (int i = 0; i < 100000; i++) {
+            v = v.flatMap(n -> Valuable.result(n + 1, Schedulers.trampoline()));
+        }
+        int[] order = new int[2];
+        Schedulers.trampoline().schedule(() -> {
+            Schedulers.trampoline().schedule(() -> order[1] = order[0] + 1);
+            order[0] = 1;
+        });
+        Assert.assertEquals(2, order[1]);
+
+        // 抛出 Error 时，已经排队的任务仍然在这次执行，而不是留到下一次
+        boolean[] ran = new boolean[1];
+        try {
+            Schedulers.trampoline().schedule(() -> {
+                Schedulers.trampoline().schedule(() -> ran[0] = true);
+                throw new AssertionError("expected");
+            });
+            throw new IllegalStateException();
+        } catch (AssertionError e) {
+            Assert.assertEquals("expected", e.getMessage());
+        }
+        Assert.assertTrue(ran[0]);
+        source.notifyResult(0);
+        Assert.assertEquals(100000, v.get().intValue());
+    }
+
+    @Test
+    public void testSchedulerMetrics() {
+        SchedulerMetrics metrics = new SchedulerMetrics();
+        Schedulers.setHook(metrics);
+        try {
+            for (int i = 0; i < 10; i++) {
+                Valuable.call(() -> 1, Schedulers.immediate()).get();
+            }
+        } finally {
+            Schedulers.setHook(null);
+        }
+        SchedulerSnapshot s = metrics.snapshot().get("immediate");
+        Assert.assertEquals(10, s.scheduled);
+        Assert.assertEquals(10, s.completed);
+        Assert.assertEquals(0, s.active);
+        Assert.assertEquals(0, s.queued);
+        Assert.assertEquals(10, s.runTime.count);
+        Assert.assertTrue(s.runTime.p50 <= s.runTime.max);
+    }
+
+    @Test
+    public void testTracer() {
+        StageMetrics metrics = new StageMetrics();
+        Valuable.setTracer(metrics);
+        try {
+            Valuable<Integer> source = Valuable.call(() -> 1, Schedulers.immediate()).name("source");
+            source.map(i -> i + 1).name("map").success(i -> {
+            }).get();
+            Valuable.result(0).flatMap(i -> source).name("flatMap").get();
+            Valuable.result(0).name("unused");
+        } finally {
+            Valuable.setTracer(null);
+        }
+        Map<String, Map<ValuableTracer.Stage, Histogram.Snapshot>> s = metrics.snapshot();
+        Assert.assertEquals(1, s.get("source").get(ValuableTracer.Stage.RUN).count);
+        Assert.assertEquals(1, s.get("source").get(ValuableTracer.Stage.TOTAL).count);
+        Assert.assertEquals(1, s.get("map").get(ValuableTracer.Stage.CALLBACK).count);
+        Assert.assertEquals(1, s.get("flatMap").get(ValuableTracer.Stage.INNER).count);
+        Assert.assertNull(s.get("unused").get(ValuableTracer.Stage.CALLBACK));
+    }
+
+    @Test
+    public void testTimeout() {
+        Valuable<Integer> v = Valuable.empty(Schedulers.immediate());
+        try {
+            v.get(20, TimeUnit.MILLISECONDS);
+            throw new AssertionError();
+        } catch (TimeoutException ignored) {
+        }
+        v.notifyResult(1);
+        Assert.assertEquals(1, v.get(1, TimeUnit.SECONDS).intValue());
+
+        Valuable<Integer> source = Valuable.empty(Schedulers.immediate());
+        Valuable<Integer> timeout = source.timeout(20, TimeUnit.MILLISECONDS).map(i -> i + 1);
+        try {
+            timeout.get();
+            throw new AssertionError();
+        } catch (TimeoutException ignored) {
+        }
+        Assert.assertTrue(source.isCanceled());
+
+        Assert.assertEquals(2, Valuable.result(1).timeout(1, TimeUnit.SECONDS).map(i -> i + 1).get().intValue());
+
+        // 超大的超时时间不能溢出成立即超时
+        Valuable<Integer> slow = Valuable.empty(Schedulers.immediate());
+        Valuable<Integer> huge = slow.timeout(Long.MAX_VALUE, TimeUnit.DAYS);
+        Valuable<String> never = Valuable.delay(() -> "OK", Long.MAX_VALUE - 1, TimeUnit.NANOSECONDS);
+        // 反复超时的 get 共用一个 waiter
+        for (int i = 0; i < 5; i++) {
+            try {
+                huge.get(10, TimeUnit.MILLISECONDS);
+                throw new AssertionError();
+            } catch (TimeoutException ignored) {
+            }
+        }
+        Assert.assertFalse(slow.isCanceled());
+        Assert.assertEquals("NO", never.getOrDefault("NO"));
+        never.cancel();
+        slow.notifyResult(3);
+        Assert.assertEquals(3, huge.get(1, TimeUnit.SECONDS).intValue());
+    }
+
+    @Test
+    public void testDelay() throws InterruptedException {
+        long start = System.nanoTime();
+        Assert.assertEquals("OK", Valuable.delay(() -> "OK", 30, TimeUnit.MILLISECONDS).get());
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+
+        Valuable<Void> timer = Valuable.timer(1, TimeUnit.SECONDS);
+        timer.cancel();
+        Assert.assertTrue(timer.isCanceled());
+
+        CountDownLatch latch = new CountDownLatch(3);
+        Cancelable periodic = Schedulers.computation().schedulePeriodically(latch::countDown, 0, 10, TimeUnit.MILLISECONDS);
+        latch.await();
+        periodic.cancel();
+        Assert.assertTrue(periodic.isCanceled());
+
+        // 定时器线程上抛出的 Error 不能影响后续的定时任务
+        Schedulers.immediate().schedule(() -> {
+            throw new AssertionError("expected");
+        }, 1, TimeUnit.MILLISECONDS);
+        Thread.sleep(30);
+        Assert.assertEquals("OK", Valuable.delay(() -> "OK", 10, TimeUnit.MILLISECONDS).get());
+    }
+
+    @Test
+    public void testRetry() {
+        AtomicInteger count = new AtomicInteger();
+        Valuable<Integer> v = Valuable.retry(() -> Valuable.call(() -> {
+            if (count.incrementAndGet() < 3) {
+                throw new IOException();
+            }
+            return count.get();
+        }), 5);
+        Assert.assertEquals(3, v.get().intValue());
+
+        count.set(0);
+        Valuable<Integer> failed = Valuable.retryWhen(() -> Valuable.call(() -> {
+            count.incrementAndGet();
+            throw new IOException();
+        }), Backoff.exponential(2, 5, 20, TimeUnit.MILLISECONDS).jitter(0.5));
+        try {
+            failed.get();
+            throw new AssertionError();
+        } catch (ValuableException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+        Assert.assertEquals(3, count.get());
+
+        count.set(0);
+        Valuable<Integer> canceled = Valuable.retryWhen(() -> Valuable.call(() -> {
+            count.incrementAndGet();
+            throw new IOException();
+        }), Backoff.fixed(10, 1, TimeUnit.SECONDS));
+        while (count.get() == 0) {
+            Thread.yield();
+        }
+        canceled.cancel();
+        Assert.assertTrue(canceled.isCanceled());
+        Assert.assertEquals(1, count.get());
+
+        // 尝试在 io 上完成，回调仍然在 retry 的 Scheduler 上执行
+        CountDownLatch attempt = new CountDownLatch(1);
+        Valuable<Integer> onSingle = Valuable.retryWhen(() -> Valuable.call(() -> {
+            attempt.await();
+            return 1;
+        }, Schedulers.io()), Backoff.immediate(1), Schedulers.single());
+        Valuable<String> thread = onSingle.map(n -> Thread.currentThread().getName(), Schedulers.single());
+        attempt.countDown();
+        Assert.assertTrue(thread.get().startsWith("Single"));
+    }
+
+    @Test
+    public void testCache() throws InterruptedException {
+        AtomicInteger loads = new AtomicInteger();
+        Map<String, Valuable<String>> pending = new HashMap<>();
+        ValuableCache<String, String> cache = new ValuableCache<>(1, 20, TimeUnit.MILLISECONDS, key -> {
+            loads.incrementAndGet();
+            Valuable<String> v = Valuable.empty(Schedulers.immediate());
+            pending.put(key, v);
+            return v;
+        });
+        Valuable<String> a = cache.get("a");
+        Assert.assertSame(a, cache.get("a"));
+        a.notifyResult("A");
+        Assert.assertSame(a, cache.get("a"));
+        Assert.assertEquals(1, loads.get());
+
+        cache.get("b");
+        Assert.assertNotSame(a, cache.get("a"));
+        pending.get("a").notifyError(new IOException());
+        cache.get("a");
+        Assert.assertEquals(4, loads.get());
+
+        pending.get("a").notifyResult("A");
+        Thread.sleep(30);
+        cache.get("a");
+        Assert.assertEquals(5, loads.get());
+
+        ValuableCache.Stats stats = cache.stats();
+        Assert.assertEquals(1, stats.hits);
+        Assert.assertEquals(1, stats.coalesced);
+        Assert.assertEquals(5, stats.misses);
+        Assert.assertEquals(3, stats.evictions);
+
+        // 成功之后被取消的 Valuable 不再命中
+        Valuable<String> c = cache.get("c");
+        pending.get("c").notifyResult("C");
+        c.cancel();
+        Valuable<String> c2 = cache.get("c");
+        Assert.assertNotSame(c, c2);
+        Assert.assertFalse(c2.isCanceled());
+        Assert.assertEquals(7, loads.get());
+        // 取消只算作未命中，不算淘汰，新增的一次淘汰是 c 挤掉了 a
+        stats = cache.stats();
+        Assert.assertEquals(7, stats.misses);
+        Assert.assertEquals(4, stats.evictions);
+
+        // 总容量不超过 maxSize
+        ValuableCache<Integer, Integer> small = new ValuableCache<>(10, 0, TimeUnit.MILLISECONDS, Valuable::result);
+        for (int i = 0; i < 100; i++) {
+            small.get(i);
+        }
+        Assert.assertEquals(10, small.size());
+    }
+
+    @Test
+    public void testBatchLoader() {
+        List<List<String>> calls = new CopyOnWriteArrayList<>();
+        BatchLoader<String, String> loader = new BatchLoader<>(3, 20, TimeUnit.MILLISECONDS, keys -> {
+            calls.add(keys);
+            Map<String, String> map = new HashMap<>();
+            for (String key : keys) {
+                if (!key.equals("missing")) {
+                    map.put(key, key.toUpperCase());
+                }
+            }
+            return Valuable.result(map);
+        });
+        Valuable<String> a1 = loader.load("a");
+        Valuable<String> a2 = loader.load("a");
+        Valuable<String> b = loader.load("b");
+        Assert.assertEquals("A", a1.get());
+        Assert.assertEquals("A", a2.get());
+        Assert.assertEquals("B", b.get());
+        Assert.assertEquals(Arrays.asList("a", "b"), calls.get(0));
+
+        Valuable<String> c = loader.load("c");
+        Valuable<String> d = loader.load("d");
+        Valuable<String> missing = loader.load("missing");
+        Assert.assertEquals(2, calls.size());
+        Assert.assertEquals("C", c.get());
+        Assert.assertEquals("D", d.get());
+        try {
+            missing.get();
+            throw new AssertionError();
+        } catch (ValuableException ignored) {
+        }
+
+        loader.load("e").cancel();
+        loader.dispatch();
+        Assert.assertEquals(2, calls.size());
+
+        // 同一个请求被并发取消多次，只释放一次，其他请求还在等待时不取消批量请求
+        for (int i = 0; i < 100; i++) {
+            List<Valuable<Map<String, String>>> bulks = new ArrayList<>();
+            BatchLoader<String, String> pendingLoader = new BatchLoader<>(3, 20, TimeUnit.MILLISECONDS, keys -> {
+                Valuable<Map<String, String>> bulk = Valuable.empty(Schedulers.immediate());
+                bulks.add(bulk);
+                return bulk;
+            });
+            Valuable<String> x = pendingLoader.load("x");
+            pendingLoader.load("y");
+            pendingLoader.load("z");
+            CountDownLatch go = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (int j = 0; j < 4; j++) {
+                Thread t = new Thread(() -> {
+                    try {
+                        go.await();
+                    } catch (InterruptedException ignored) {
+                    }
+                    x.cancel();
+                });
+                t.start();
+                threads.add(t);
+            }
+            go.countDown();
+            for (Thread t : threads) {
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+            Assert.assertFalse(bulks.get(0).isCanceled());
+        }
+    }
+
+    @Test
+    public void testAllOfAndZip() {
+        List<Valuable<Integer>> inputs = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            inputs.add(Valuable.empty(Schedulers.immediate()));
+        }
+        Valuable<List<Integer>> all = Valuable.allOf(inputs);
+        for (int i = inputs.size() - 1; i >= 0; i--) {
+            inputs.get(i).notifyResult(i);
+        }
+        List<Integer> list = all.get();
+        Assert.assertEquals(1000, list.size());
+        Assert.assertEquals(999, list.get(999).intValue());
+        Assert.assertTrue(Valuable.allOf(new ArrayList<Valuable<Integer>>()).get().isEmpty());
+
+        Valuable<String> zipped = Valuable.zip(Valuable.result(1), Valuable.result("a"), Valuable.result(2L),
+                (a, b, c) -> a + b + c, Schedulers.immediate());
+        Assert.assertEquals("1a2", zipped.get());
+
+        Valuable<Integer> late = Valuable.empty(Schedulers.immediate());
+        Valuable<String> six = Valuable.zip(Valuable.result(1), Valuable.result("b"), Valuable.result(3L),
+                Valuable.result('d'), late, Valuable.result(true),
+                (a, b, c, d, e, f) -> "" + a + b + c + d + e + f, Schedulers.immediate());
+        late.notifyResult(5);
+        Assert.assertEquals("1b3d5true", six.get());
+
+        Valuable<Integer> pending = Valuable.empty(Schedulers.immediate());
+        Valuable<Integer> failed = Valuable.zip(pending, Valuable.call(() -> {
+            throw new IOException();
+        }, Schedulers.immediate()), (a, b) -> a);
+        try {
+            failed.get();
+            throw new AssertionError();
+        } catch (ValuableException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+        Valuable<Integer> canceled = Valuable.zip(pending, Valuable.result(1), (a, b) -> a + b);
+        canceled.cancel();
+        Assert.assertTrue(pending.isCanceled());
+    }
+
+    @Test
+    public void testRace() {
+        Valuable<String> memory = Valuable.empty(Schedulers.immediate());
+        Valuable<String> disk = Valuable.empty(Schedulers.immediate());
+        Valuable<String> network = Valuable.empty(Schedulers.immediate());
+        Valuable<String> race = Valuable.race(memory, disk, network);
+        disk.notifyError(new IOException());
+        try {
+            race.get();
+            throw new AssertionError();
+        } catch (ValuableException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+        Assert.assertTrue(memory.isCanceled());
+        Assert.assertTrue(network.isCanceled());
+
+        Valuable<String> memory2 = Valuable.empty(Schedulers.immediate());
+        Valuable<String> disk2 = Valuable.empty(Schedulers.immediate());
+        Valuable<String> network2 = Valuable.empty(Schedulers.immediate());
+        Valuable<String> first = Valuable.firstSuccess(memory2, disk2, network2);
+        memory2.notifyError(new IOException());
+        network2.notifyResult("network");
+        Assert.assertEquals("network", first.get());
+        Assert.assertTrue(disk2.isCanceled());
+
+        Valuable<String> failed = Valuable.firstSuccess(Valuable.call(() -> {
+            throw new IOException();
+        }, Schedulers.immediate()), Valuable.call(() -> {
+            throw new IllegalStateException();
+        }, Schedulers.immediate()));
+        try {
+            failed.get();
+            throw new AssertionError();
+        } catch (ValuableException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testCompletionStream() throws InterruptedException {
+        List<Valuable<Integer>> inputs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            inputs.add(Valuable.empty(Schedulers.immediate()));
+        }
+        CompletionStream<Integer> stream = Valuable.inCompletionOrder(inputs);
+        inputs.get(2).notifyResult(2);
+        inputs.get(0).notifyError(new IOException());
+        inputs.get(1).notifyResult(1);
+        List<Integer> order = new ArrayList<>();
+        for (Valuable<Integer> v : stream) {
+            order.add(v.getOrDefault(-1));
+        }
+        Assert.assertEquals(Arrays.asList(2, -1, 1), order);
+
+        List<Valuable<Integer>> inputs2 = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            int n = i;
+            inputs2.add(Valuable.call(() -> n));
+        }
+        CountDownLatch latch = new CountDownLatch(100);
+        AtomicInteger sum = new AtomicInteger();
+        Valuable.inCompletionOrder(inputs2).subscribe(v -> {
+            sum.addAndGet(v.get());
+            latch.countDown();
+        }, Schedulers.single());
+        latch.await();
+        Assert.assertEquals(4950, sum.get());
+    }
+
+    @Test
+    public void testParallelMap() {
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            items.add(i);
+        }
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        List<Integer> result = Valuable.<Integer, Integer>parallelMap(items, i -> Valuable.call(() -> {
+            int n = running.incrementAndGet();
+            int p;
+            while (n > (p = peak.get()) && !peak.compareAndSet(p, n)) {
+            }
+            running.decrementAndGet();
+            return i * 2;
+        }, Schedulers.io()), 4).get();
+        Assert.assertEquals(1000, result.size());
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(i * 2, (int) result.get(i));
+        }
+        Assert.assertTrue(peak.get() <= 4);
+
+        // 同步完成的输入不会递归
+        Assert.assertEquals(100000, Valuable.<Integer, Integer>parallelMap(Collections.nCopies(100000, 1),
+                Valuable::result, 8).get().size());
+
+        List<Valuable<Integer>> started = new CopyOnWriteArrayList<>();
+        Valuable<List<Integer>> v = Valuable.parallelMap(items, i -> {
+            Valuable<Integer> inner = Valuable.empty(Schedulers.immediate());
+            started.add(inner);
+            return inner;
+        }, 2);
+        Assert.assertEquals(2, started.size());
+        started.get(0).notifyResult(0);
+        Assert.assertEquals(3, started.size());
+        v.cancel();
+        started.get(1).notifyResult(1);
+        Assert.assertEquals(3, started.size());
+        Assert.assertTrue(started.get(2).isCanceled());
+    }
+
+    @Test
+    public void testInterruptOnCancel() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        Valuable<Void> v = Valuable.callInterruptibly(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(30000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return null;
+        }, Schedulers.single());
+        started.await();
+        v.cancel();
+        Assert.assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+        // 中断不会泄漏到同一线程的下一个任务
+        Assert.assertFalse(Valuable.call(() -> Thread.currentThread().isInterrupted(), Schedulers.single()).get());
+
+        CountDownLatch started2 = new CountDownLatch(1);
+        AtomicInteger interrupts = new AtomicInteger();
+        Valuable<Void> v2 = Valuable.call(() -> {
+            started2.countDown();
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                interrupts.incrementAndGet();
+            }
+            return null;
+        }, Schedulers.single());
+        started2.await();
+        v2.cancel();
+        Valuable.run(() -> {
+        }, Schedulers.single()).get();
+        Assert.assertEquals(0, interrupts.get());
+    }
+
+    @Test
+    public void testSkipCanceledQueuedTasks() throws InterruptedException {
+        AtomicInteger ran = new AtomicInteger();
+        SchedulerMetrics metrics = new SchedulerMetrics();
+        Schedulers.setHook(metrics);
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            Valuable.run(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            }, Schedulers.single());
+            for (int i = 0; i < 10; i++) {
+                Valuable.call(ran::incrementAndGet, Schedulers.single()).cancel();
+            }
+            release.countDown();
+            Valuable.run(() -> {
+            }, Schedulers.single()).get();
+        } finally {
+            Schedulers.setHook(null);
+        }
+        Assert.assertEquals(0, ran.get());
+        Assert.assertEquals(10, metrics.snapshot().get("single").skipped);
+        Assert.assertEquals(0, metrics.snapshot().get("single").queued);
+
+        SchedulerMetrics computationMetrics = new SchedulerMetrics();
+        Schedulers.setHook(computationMetrics);
+        int n = Runtime.getRuntime().availableProcessors();
+        long skipped = Schedulers.computationStats().skipped;
+        CountDownLatch started = new CountDownLatch(n);
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < n; i++) {
+            Valuable.run(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            }, Schedulers.computation());
+        }
+        started.await();
+        for (int i = 0; i < 10; i++) {
+            Valuable.call(ran::incrementAndGet, Schedulers.computation()).cancel();
+        }
+        release.countDown();
+        // 其他 worker 可能还没有取到被取消的任务
+        for (int i = 0; i < 100 && Schedulers.computationStats().skipped < skipped + 10; i++) {
+            Thread.sleep(10);
+        }
+        Schedulers.setHook(null);
+        Assert.assertEquals(0, ran.get());
+        Assert.assertEquals(skipped + 10, Schedulers.computationStats().skipped);
+        // 被跳过的任务同样离开队列、计入 completed
+        SchedulerSnapshot snapshot = computationMetrics.snapshot().get("computation");
+        // 占用 worker 的任务可能还没有记录完成
+        for (int i = 0; i < 100 && snapshot.completed < n + 10; i++) {
+            Thread.sleep(10);
+            snapshot = computationMetrics.snapshot().get("computation");
+        }
+        Assert.assertEquals(10, snapshot.skipped);
+        Assert.assertEquals(0, snapshot.queued);
+        Assert.assertEquals(n + 10, snapshot.completed);
+    }
+
+    @Test
+    public void testPriority() throws InterruptedException {
+        Assert.assertSame(Schedulers.computation(), Schedulers.computation(Priority.NORMAL));
+        Assert.assertEquals(Schedulers.computation(), Schedulers.computation(Priority.HIGH));
+        Assert.assertNotEquals(Schedulers.io(), Schedulers.computation(Priority.HIGH));
+
+        int n = Runtime.getRuntime().availableProcessors();
+        CountDownLatch started = new CountDownLatch(n);
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < n; i++) {
+            Valuable.run(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            }, Schedulers.computation());
+        }
+        started.await();
+        // 先提交的低优先级任务排在后提交的高优先级任务之后
+        List<Valuable<Void>> all = new ArrayList<>();
+        for (Priority p : new Priority[]{Priority.LOW, Priority.HIGH}) {
+            for (int i = 0; i < 20 * n; i++) {
+                all.add(Valuable.run(() -> {
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException ignored) {
+                    }
+                }, Schedulers.computation(p)));
+            }
+        }
+        release.countDown();
+        Valuable.allOf(all).get();
+        PoolStats stats = Schedulers.computationStats();
+        Assert.assertEquals(20 * n, stats.queueTime(Priority.HIGH).count);
+        Assert.assertEquals(20 * n, stats.queueTime(Priority.LOW).count);
+        Assert.assertTrue(stats.queueTime(Priority.HIGH).mean < stats.queueTime(Priority.LOW).mean);
+    }
+
+    @Test
+    public void testPromotion() throws InterruptedException {
+        PromotionStats before = Valuable.promotionStats();
+        int n = Runtime.getRuntime().availableProcessors();
+        CountDownLatch started = new CountDownLatch(n);
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < n; i++) {
+            Valuable.run(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            }, Schedulers.computation());
+        }
+        started.await();
+        AtomicInteger runs = new AtomicInteger();
+        Valuable<Thread> prefetch = Valuable.call(() -> {
+            runs.incrementAndGet();
+            return Thread.currentThread();
+        }, Schedulers.computation(Priority.LOW));
+        // worker 都被占用，get() 在当前线程直接执行
+        Assert.assertSame(Thread.currentThread(), prefetch.map(t -> t, Schedulers.immediate()).get());
+
+        Valuable<Thread> prefetch2 = Valuable.call(() -> {
+            runs.incrementAndGet();
+            return Thread.currentThread();
+        }, Schedulers.computation(Priority.LOW));
+        CountDownLatch done = new CountDownLatch(1);
+        prefetch2.success(t -> done.countDown());
+
+        // 内部操作符的订阅不算等待，对 flatMap 结果的等待才提升 mapper 返回的 Valuable
+        Valuable<Thread> prefetch3 = Valuable.call(() -> {
+            runs.incrementAndGet();
+            return Thread.currentThread();
+        }, Schedulers.computation(Priority.LOW));
+        Valuable<Thread> flat = Valuable.result(1).flatMap(x -> prefetch3, Schedulers.immediate());
+        Valuable.retry(() -> prefetch3, 1);
+        Assert.assertEquals(before.resubmitted + 1, Valuable.promotionStats().resubmitted);
+        CountDownLatch flatDone = new CountDownLatch(1);
+        flat.success(t -> flatDone.countDown());
+
+        release.countDown();
+        Assert.assertTrue(done.await(1, TimeUnit.SECONDS));
+        Assert.assertTrue(flatDone.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(3, runs.get());
+
+        PromotionStats after = Valuable.promotionStats();
+        Assert.assertEquals(before.inline + 1, after.inline);
+        Assert.assertEquals(before.resubmitted + 2, after.resubmitted);
+    }
+
+    @Test
+    public void testEventLoop() throws InterruptedException {
+        AtomicInteger posts = new AtomicInteger();
+        java.util.concurrent.Executor thread = java.util.concurrent.Executors.newSingleThreadExecutor();
+        Scheduler loop = Schedulers.eventLoop("test", r -> {
+            posts.incrementAndGet();
+            thread.execute(r);
+        }, 8, TimeUnit.MILLISECONDS);
+
+        CountDownLatch release = new CountDownLatch(1);
+        loop.schedule(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(200);
+        for (int i = 0; i < 200; i++) {
+            Valuable.result(i).success(n -> {
+                order.add(n);
+                done.countDown();
+            }, loop);
+        }
+        release.countDown();
+        Assert.assertTrue(done.await(1, TimeUnit.SECONDS));
+        // 200 个回调合并执行，第一个任务阻塞期间 budget 可能已经用完，最多再投递一次
+        Assert.assertTrue(posts.get() <= 2);
+        for (int i = 0; i < 200; i++) {
+            Assert.assertEquals(i, (int) order.get(i));
+        }
+
+        // 超过 budget 后让出线程，每次 drain 最多执行两个任务，即使第一个任务并入上一次的 drain 也至少再投递两次
+        posts.set(0);
+        CountDownLatch slow = new CountDownLatch(6);
+        for (int i = 0; i < 6; i++) {
+            loop.schedule(() -> {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException ignored) {
+                }
+                slow.countDown();
+            });
+        }
+        Assert.assertTrue(slow.await(1, TimeUnit.SECONDS));
+        Assert.assertTrue(posts.get() >= 2);
+
+        Scheduler jvmLoop = Schedulers.newEventLoop("jvm-loop");
+        Thread t = Valuable.call(Thread::currentThread, jvmLoop).get();
+        Assert.assertTrue(t.getName().startsWith("jvm-loop"));
+    }
+
+    @Test
+    public void testElideThreadHops() throws InterruptedException {
+        // 已经在 computation 的线程中，回调直接执行
+        Assert.assertTrue(Valuable.call(() -> {
+            boolean[] ran = new boolean[1];
+            Valuable.result(1).success(n -> ran[0] = true, Schedulers.computation());
+            return ran[0];
+        }, Schedulers.computation()).get());
+
+        // 嵌套的直接执行受深度限制，超过之后重新排队，全部回调仍然会执行
+        ThreadLocal<int[]> depth = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                return new int[1];
+            }
+        };
+        AtomicInteger maxDepth = new AtomicInteger();
+        CountDownLatch chain = new CountDownLatch(100);
+        Valuable.call(() -> {
+            nest(0, depth, maxDepth, chain);
+            return null;
+        }, Schedulers.computation());
+        Assert.assertTrue(chain.await(1, TimeUnit.SECONDS));
+        Assert.assertTrue(maxDepth.get() > 1);
+        // 从队列中执行的一层加上直接执行的层数
+        Assert.assertTrue(maxDepth.get() <= Schedulers.MAX_INLINE_DEPTH + 1);
+
+        // main 总是排队，mainImmediate 在主线程直接执行
+        Assert.assertEquals(Schedulers.main(), Schedulers.mainImmediate());
+        boolean[] onMain = Valuable.call(() -> {
+            boolean[] ran = new boolean[2];
+            Valuable.result(1).success(n -> ran[0] = true, Schedulers.main());
+            Valuable.result(1).success(n -> ran[1] = true, Schedulers.mainImmediate());
+            return ran.clone();
+        }, Schedulers.main()).get();
+        Assert.assertFalse(onMain[0]);
+        Assert.assertTrue(onMain[1]);
+        Thread t = Valuable.call(Thread::currentThread, Schedulers.mainImmediate()).get();
+        Assert.assertEquals(Looper.getMainLooper().getThread(), t);
+
+        Scheduler single = Schedulers.immediate(Schedulers.single());
+        Assert.assertTrue(Valuable.call(() -> {
+            boolean[] ran = new boolean[1];
+            Valuable.result(1).success(n -> ran[0] = true, single);
+            return ran[0];
+        }, Schedulers.single()).get());
+    }
+
+    private static void nest(int n, ThreadLocal<int[]> depth, AtomicInteger maxDepth, CountDownLatch chain) {
+        Valuable.result(n).success(i -> {
+            int d = ++depth.get()[0];
+            int max;
+            while (d > (max = maxDepth.get()) && !maxDepth.compareAndSet(max, d)) {
+                // retry
+            }
+            chain.countDown();
+            if (i < 99) {
+                nest(i + 1, depth, maxDepth, chain);
+            }
+            depth.get()[0]--;
+        }, Schedulers.computation());
+    }
+
+    @Test
+    public void testBatchDispatch() throws InterruptedException {
+        AtomicInteger executes = new AtomicInteger();
+        List<RuntimeException> errors = new CopyOnWriteArrayList<>();
+        java.util.concurrent.Executor counting = r -> {
+            executes.incrementAndGet();
+            try {
+                r.run();
+            } catch (RuntimeException e) {
+                errors.add(e);
+            }
+        };
+        Scheduler a = Schedulers.from("a", counting);
+        Scheduler b = Schedulers.from("b", counting);
+
+        CountDownLatch start = new CountDownLatch(1);
+        Valuable<Integer> v = Valuable.call(() -> {
+            start.await();
+            return 1;
+        }, Schedulers.single());
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(50);
+        for (int i = 0; i < 50; i++) {
+            int index = i;
+            v.success(n -> {
+                order.add(index);
+                done.countDown();
+                if (index == 10) {
+                    throw new IllegalStateException("consumer " + index);
+                }
+            }, index % 2 == 0 ? a : b);
+        }
+        start.countDown();
+        Assert.assertTrue(done.await(1, TimeUnit.SECONDS));
+        // 每个 Scheduler 一个任务
+        Assert.assertEquals(2, executes.get());
+        Assert.assertEquals(50, order.size());
+        // 同一个 Scheduler 上按注册顺序执行，异常不影响后面的回调，最后抛给 Scheduler
+        int lastEven = -1;
+        int lastOdd = -1;
+        for (int i : order) {
+            if (i % 2 == 0) {
+                Assert.assertTrue(i > lastEven);
+                lastEven = i;
+            } else {
+                Assert.assertTrue(i > lastOdd);
+                lastOdd = i;
+            }
+        }
+        Assert.assertEquals(1, errors.size());
+        Assert.assertEquals("consumer 10", errors.get(0).getMessage());
+
+        // 直接执行的回调抛出异常，之前注册的、需要派发的回调仍然会派发
+        CountDownLatch io = new CountDownLatch(1);
+        CountDownLatch delivered = new CountDownLatch(1);
+        Valuable<Integer> w = Valuable.call(() -> {
+            io.await();
+            return 1;
+        }, Schedulers.io());
+        w.success(n -> delivered.countDown(), Schedulers.single());
+        w.success(n -> {
+            throw new IllegalStateException();
+        }, Schedulers.io());
+        io.countDown();
+        Assert.assertTrue(delivered.await(1, TimeUnit.SECONDS));
+    }
 }
@@ -0,0 +1,171 @@
+package com.dieyidezui.valuable.shedulers;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.dieyidezui.valuable.Scheduler;
+import com.dieyidezui.valuable.Valuable;
+import com.dieyidezui.valuable.exceptions.OverloadException;
+import com.dieyidezui.valuable.metrics.Histogram;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * 在单独创建的小线程池上检查过载策略，全局的 io() / computation() 只能在第一次使用之前设置容量
+ * created by dieyidezui on 2019/1/18.
+ */
+@RunWith(AndroidJUnit4.class)
+public class OverloadTest {
+
+    @Test
+    public void testIoReject() throws InterruptedException {
+        checkReject(new Pool(false, OverloadPolicy.REJECT));
+    }
+
+    @Test
+    public void testComputationReject() throws InterruptedException {
+        checkReject(new Pool(true, OverloadPolicy.REJECT));
+    }
+
+    @Test
+    public void testIoCallerRuns() throws InterruptedException {
+        checkCallerRuns(new Pool(false, OverloadPolicy.CALLER_RUNS));
+    }
+
+    @Test
+    public void testComputationCallerRuns() throws InterruptedException {
+        checkCallerRuns(new Pool(true, OverloadPolicy.CALLER_RUNS));
+    }
+
+    @Test
+    public void testIoDropOldest() throws InterruptedException {
+        checkDropOldest(new Pool(false, OverloadPolicy.DROP_OLDEST));
+    }
+
+    @Test
+    public void testComputationDropOldest() throws InterruptedException {
+        checkDropOldest(new Pool(true, OverloadPolicy.DROP_OLDEST));
+    }
+
+    @Test
+    public void testBoundsAfterFirstUse() {
+        Assert.assertEquals(1, Valuable.call(() -> 1, Schedulers.io()).get().intValue());
+        Assert.assertEquals(1, Valuable.call(() -> 1, Schedulers.computation()).get().intValue());
+        try {
+            Schedulers.setIoBounds(1, 1, OverloadPolicy.REJECT);
+            throw new AssertionError();
+        } catch (IllegalStateException ignored) {
+        }
+        try {
+            Schedulers.setComputationBounds(1, OverloadPolicy.REJECT);
+            throw new AssertionError();
+        } catch (IllegalStateException ignored) {
+        }
+        // 默认的 io() 线程数不限、不排队，不会拒绝
+        PoolStats io = Schedulers.ioStats();
+        Assert.assertEquals(0, io.rejected);
+        Assert.assertEquals(0, io.dropped);
+        Assert.assertEquals(0, io.callerRuns);
+    }
+
+    private static void checkReject(Pool pool) throws InterruptedException {
+        CountDownLatch release = pool.block();
+        Valuable<String> queued = Valuable.call(() -> "queued", pool.scheduler);
+        Valuable<String> rejected = Valuable.call(() -> "rejected", pool.scheduler);
+        try {
+            rejected.get();
+            throw new AssertionError();
+        } catch (OverloadException ignored) {
+        }
+        Assert.assertEquals(1, pool.stats().rejected);
+
+        // 队列中被取消的任务先被移出，不触发过载策略
+        queued.cancel();
+        Valuable<String> accepted = Valuable.call(() -> "accepted", pool.scheduler);
+        release.countDown();
+        Assert.assertEquals("accepted", accepted.get());
+        PoolStats stats = pool.stats();
+        Assert.assertEquals(1, stats.rejected);
+        Assert.assertEquals(1, stats.skipped);
+        Assert.assertEquals(0, stats.dropped);
+        Assert.assertEquals(0, stats.callerRuns);
+    }
+
+    private static void checkCallerRuns(Pool pool) throws InterruptedException {
+        CountDownLatch release = pool.block();
+        Valuable<String> queued = Valuable.call(() -> "queued", pool.scheduler);
+        Thread caller = Thread.currentThread();
+        Valuable<Thread> overflow = Valuable.call(Thread::currentThread, pool.scheduler);
+        Assert.assertSame(caller, overflow.get());
+        release.countDown();
+        Assert.assertEquals("queued", queued.get());
+        PoolStats stats = pool.stats();
+        Assert.assertEquals(1, stats.callerRuns);
+        Assert.assertEquals(0, stats.rejected);
+        Assert.assertEquals(0, stats.dropped);
+    }
+
+    private static void checkDropOldest(Pool pool) throws InterruptedException {
+        CountDownLatch release = pool.block();
+        Valuable<String> oldest = Valuable.call(() -> "oldest", pool.scheduler);
+        Valuable<String> latest = Valuable.call(() -> "latest", pool.scheduler);
+        try {
+            oldest.get();
+            throw new AssertionError();
+        } catch (OverloadException ignored) {
+        }
+        release.countDown();
+        Assert.assertEquals("latest", latest.get());
+        PoolStats stats = pool.stats();
+        Assert.assertEquals(1, stats.dropped);
+        Assert.assertEquals(0, stats.rejected);
+        Assert.assertEquals(0, stats.callerRuns);
+    }
+
+    /**
+     * 一个线程、队列容量为 1 的线程池
+     */
+    private static final class Pool {
+        final Overload overload;
+        final Histogram[] queueTime = PriorityTaskQueue.newQueueTime();
+        final Executor executor;
+        final Scheduler scheduler;
+
+        Pool(boolean computation, OverloadPolicy policy) {
+            overload = new Overload("Test", policy);
+            executor = computation
+                    ? Schedulers.newComputationPool("TestComputation", 1, 1, overload, queueTime)
+                    : Schedulers.newIoPool("TestIo", 1, 1, overload, queueTime);
+            scheduler = Schedulers.from("test", executor);
+        }
+
+        /**
+         * 占住唯一的线程，返回的 latch 用于放行
+         */
+        CountDownLatch block() throws InterruptedException {
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            executor.execute(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            });
+            started.await();
+            return release;
+        }
+
+        PoolStats stats() {
+            if (executor instanceof WorkStealingExecutor) {
+                return ((WorkStealingExecutor) executor).stats();
+            }
+            return overload.stats(((ThreadPoolExecutor) executor).getQueue().size(), queueTime);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.dieyidezui.valuable;
+
+import android.support.annotation.Nullable;
+
+import com.dieyidezui.valuable.function.Function;
+import com.dieyidezui.valuable.internal.util.ObjectHelper;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * retry 的重试策略，不可变，jitter / retryIf 返回新的对象
+ * created by dieyidezui on 2019/1/2.
+ */
+public final class Backoff {
+
+    private final int maxRetries;
+    private final long initialNanos;
+    private final long maxNanos;
+    private final double multiplier;
+    private final double jitter;
+    @Nullable
+    private final Function<? super Exception, Boolean> predicate;
+
+    private Backoff(int maxRetries, long initialNanos, long maxNanos, double multiplier, double jitter,
+                    @Nullable Function<? super Exception, Boolean> predicate) {
+        if (maxRetries < 0 || initialNanos < 0 || maxNanos < initialNanos) {
+            throw new IllegalArgumentException();
+        }
+        this.maxRetries = maxRetries;
+        this.initialNanos = initialNanos;
+        this.maxNanos = maxNanos;
+        this.multiplier = multiplier;
+        this.jitter = jitter;
+        this.predicate = predicate;
+    }
+
+    /**
+     * 失败后立即重试
+     */
+    public static Backoff immediate(int maxRetries) {
+        return new Backoff(maxRetries, 0, 0, 1, 0, null);
+    }
+
+    public static Backoff fixed(int maxRetries, long delay, TimeUnit unit) {
+        long nanos = unit.toNanos(delay);
+        return new Backoff(maxRetries, nanos, nanos, 1, 0, null);
+    }
+
+    /**
+     * 第 n 次重试前等待 initialDelay * 2^(n-1)，最多等待 maxDelay
+     */
+    public static Backoff exponential(int maxRetries, long initialDelay, long maxDelay, TimeUnit unit) {
+        return new Backoff(maxRetries, unit.toNanos(initialDelay), unit.toNanos(maxDelay), 2, 0, null);
+    }
+
+    /**
+     * 每次的等待时间随机减少最多 factor 倍，避免大量客户端同时重试
+     *
+     * @param factor 0 到 1 之间
+     */
+    public Backoff jitter(double factor) {
+        if (factor < 0 || factor > 1) {
+            throw new IllegalArgumentException();
+        }
+        return new Backoff(maxRetries, initialNanos, maxNanos, multiplier, factor, predicate);
+    }
+
+    /**
+     * 只有 predicate 返回 true 的异常才重试
+     */
+    public Backoff retryIf(Function<? super Exception, Boolean> predicate) {
+        return new Backoff(maxRetries, initialNanos, maxNanos, multiplier, jitter,
+                ObjectHelper.requireNonNull(predicate));
+    }
+
+    /**
+     * @param attempt 第几次重试，从 1 开始
+     */
+    public boolean shouldRetry(int attempt, Exception e) throws Exception {
+        return attempt <= maxRetries && (predicate == null || Boolean.TRUE.equals(predicate.apply(e)));
+    }
+
+    /**
+     * @param attempt 第几次重试，从 1 开始
+     * @return 重试前的等待时间，单位纳秒
+     */
+    public long delayNanos(int attempt) {
+        double delay = initialNanos * Math.pow(multiplier, attempt - 1);
+        long nanos = delay >= maxNanos ? maxNanos : (long) delay;
+        if (jitter > 0) {
+            nanos -= (long) (nanos * jitter * Math.random());
+        }
+        return nanos;
+    }
+}
@@ -0,0 +1,210 @@
+package com.dieyidezui.valuable;
+
+import android.support.annotation.Nullable;
+
+import com.dieyidezui.valuable.exceptions.ValuableException;
+import com.dieyidezui.valuable.function.Function;
+import com.dieyidezui.valuable.internal.util.ObjectHelper;
+import com.dieyidezui.valuable.internal.valuables.BaseValuable;
+import com.dieyidezui.valuable.shedulers.Schedulers;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * 将一段时间窗口内对单个 key 的请求合并为一次批量请求：
+ * 第一个请求开始计时，窗口结束或者不同的 key 达到 maxBatchSize 时调用 batchFunction，再用返回的 Map 完成每个请求。
+ * 每个请求都是独立的 Valuable，取消只影响自己；批量请求发出前全部被取消则不会发出，发出后全部被取消则取消批量请求。
+ * batchFunction 可能在定时器线程调用，只应该创建 Valuable，不要在其中做耗时的工作。
+ * created by dieyidezui on 2019/1/6.
+ */
+@SuppressWarnings("unchecked")
+public class BatchLoader<K, V> {
+
+    private static final AtomicIntegerFieldUpdater<BatchLoader.Request> RELEASED =
+            AtomicIntegerFieldUpdater.newUpdater(BatchLoader.Request.class, "released");
+
+    private final int maxBatchSize;
+    private final long windowNanos;
+    private final Function<? super List<K>, ? extends Valuable<? extends Map<K, ? extends V>>> batchFunction;
+
+    @Nullable
+    private Batch current;
+
+    /**
+     * @param window 小于等于 0 时只在达到 maxBatchSize 或者调用 {@link #dispatch()} 时发出
+     */
+    public BatchLoader(int maxBatchSize, long window, TimeUnit unit,
+                       Function<? super List<K>, ? extends Valuable<? extends Map<K, ? extends V>>> batchFunction) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.windowNanos = unit.toNanos(window);
+        this.batchFunction = ObjectHelper.requireNonNull(batchFunction);
+    }
+
+    /**
+     * @return 对应 key 的 Valuable，批量结果中没有该 key 时以 ValuableException 失败
+     */
+    public Valuable<V> load(K key) {
+        ObjectHelper.requireNonNull(key);
+        Request r = new Request(key);
+        Batch full = null;
+        synchronized (this) {
+            Batch b = current;
+            if (b == null) {
+                b = current = new Batch();
+                if (windowNanos > 0) {
+                    Batch scheduled = b;
+                    b.timer = Schedulers.immediate().schedule(() -> flush(scheduled), windowNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+            b.add(r);
+            if (b.requests.size() >= maxBatchSize) {
+                full = b;
+                current = null;
+            }
+        }
+        if (full != null) {
+            if (full.timer != null) {
+                full.timer.cancel();
+            }
+            full.dispatch();
+        }
+        return r;
+    }
+
+    /**
+     * 立即发出当前积累的请求
+     */
+    public void dispatch() {
+        Batch b;
+        synchronized (this) {
+            b = current;
+        }
+        if (b != null) {
+            if (b.timer != null) {
+                b.timer.cancel();
+            }
+            flush(b);
+        }
+    }
+
+    private void flush(Batch b) {
+        synchronized (this) {
+            if (current != b) {
+                return;
+            }
+            current = null;
+        }
+        b.dispatch();
+    }
+
+    final class Batch {
+        /**
+         * 发出之前由 BatchLoader 的锁保护，发出之后只读
+         */
+        final LinkedHashMap<K, List<Request>> requests = new LinkedHashMap<>();
+        final AtomicInteger live = new AtomicInteger();
+        Cancelable timer;
+        volatile Valuable<?> bulk;
+
+        void add(Request r) {
+            List<Request> list = requests.get(r.key);
+            if (list == null) {
+                list = new ArrayList<>(1);
+                requests.put(r.key, list);
+            }
+            list.add(r);
+            r.batch = this;
+            live.incrementAndGet();
+        }
+
+        void dispatch() {
+            List<K> keys = new ArrayList<>(requests.size());
+            for (Map.Entry<K, List<Request>> e : requests.entrySet()) {
+                for (Request r : e.getValue()) {
+                    if (!r.isCanceled()) {
+                        keys.add(e.getKey());
+                        break;
+                    }
+                }
+            }
+            if (keys.isEmpty()) {
+                return;
+            }
+            Valuable<? extends Map<K, ? extends V>> v;
+            try {
+                v = ObjectHelper.requireNonNull(batchFunction.apply(keys), "batch function returns null");
+            } catch (Exception e) {
+                fail(e);
+                return;
+            }
+            bulk = v;
+            if (live.get() == 0) {
+                v.cancel();
+            }
+            BaseValuable.observe((Valuable<Map<K, ? extends V>>) v, this::complete, this::fail, Schedulers.immediate());
+        }
+
+        void complete(Map<K, ? extends V> map) {
+            for (Map.Entry<K, List<Request>> e : requests.entrySet()) {
+                K key = e.getKey();
+                boolean found = map != null && map.containsKey(key);
+                for (Request r : e.getValue()) {
+                    if (found) {
+                        r.notifyResult(map.get(key));
+                    } else {
+                        r.notifyError(new ValuableException("No value for key " + key));
+                    }
+                }
+            }
+        }
+
+        void fail(Exception e) {
+            for (List<Request> list : requests.values()) {
+                for (Request r : list) {
+                    r.notifyError(e);
+                }
+            }
+        }
+
+        void release() {
+            if (live.decrementAndGet() == 0) {
+                Valuable<?> v = bulk;
+                if (v != null) {
+                    v.cancel();
+                }
+            }
+        }
+    }
+
+    final class Request extends BaseValuable<V> {
+        final K key;
+        Batch batch;
+        /**
+         * 每个请求最多释放一次，并发的 cancel 不会重复扣减 live
+         */
+        volatile int released;
+
+        Request(K key) {
+            super(null, Schedulers.immediate(), null);
+            this.key = key;
+        }
+
+        @Override
+        public void cancel() {
+            super.cancel();
+            Batch b = batch;
+            if (b != null && RELEASED.compareAndSet(this, 0, 1)) {
+                b.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.dieyidezui.valuable;
+
+/**
+ * created by dieyidezui on 2018/12/30.
+ */
+public interface Cancelable {
+
+    void cancel();
+
+    boolean isCanceled();
+}
@@ -0,0 +1,210 @@
+package com.dieyidezui.valuable;
+
+import android.support.annotation.Nullable;
+
+import com.dieyidezui.valuable.exceptions.OverloadException;
+import com.dieyidezui.valuable.exceptions.ValuableException;
+import com.dieyidezui.valuable.function.Consumer;
+import com.dieyidezui.valuable.internal.util.ObjectHelper;
+import com.dieyidezui.valuable.internal.valuables.BaseValuable;
+import com.dieyidezui.valuable.shedulers.Schedulers;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按完成的顺序依次给出一组 Valuable，类似 ExecutorCompletionService。
+ * 给出的 Valuable 都已完成，get() 不会阻塞，失败或者取消的也会给出。
+ * 已经给出的 Valuable 不再被持有，只有完成但尚未消费的结果占用内存。
+ * 消费方式二选一：在一个线程中通过 {@link #take()} / {@link #iterator()} 阻塞地消费，
+ * 或者通过 {@link #subscribe(Consumer, Scheduler)} 在指定的 Scheduler 上按顺序回调。
+ * created by dieyidezui on 2019/1/12.
+ */
+@SuppressWarnings("unchecked")
+public final class CompletionStream<T> implements Iterable<Valuable<T>>, Cancelable {
+
+    private final LinkedBlockingQueue<Valuable<T>> completed = new LinkedBlockingQueue<>();
+    /**
+     * 尚未完成的输入，完成后置空
+     */
+    private final Valuable<T>[] inputs;
+    private final AtomicInteger wip = new AtomicInteger();
+    private int taken;
+    private volatile boolean canceled;
+    @Nullable
+    private volatile Consumer<? super Valuable<T>> consumer;
+    private Scheduler scheduler;
+
+    public CompletionStream(List<? extends Valuable<? extends T>> valuables) {
+        int n = valuables.size();
+        inputs = valuables.toArray(new Valuable[n]);
+        for (int i = 0; i < n; i++) {
+            Slot slot = new Slot(i);
+            BaseValuable.observe(inputs[i], slot, slot, Schedulers.immediate());
+        }
+    }
+
+    /**
+     * 输入的总数
+     */
+    public int size() {
+        return inputs.length;
+    }
+
+    /**
+     * 阻塞直到下一个 Valuable 完成
+     *
+     * @throws NoSuchElementException 所有 Valuable 都已给出
+     * @throws ValuableException      等待时被中断
+     */
+    public Valuable<T> take() {
+        if (taken == inputs.length) {
+            throw new NoSuchElementException();
+        }
+        try {
+            Valuable<T> v = completed.take();
+            taken++;
+            return v;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ValuableException(e);
+        }
+    }
+
+    /**
+     * @return 超时或者所有 Valuable 都已给出时返回 null
+     */
+    @Nullable
+    public Valuable<T> poll(long timeout, TimeUnit unit) {
+        if (taken == inputs.length) {
+            return null;
+        }
+        try {
+            Valuable<T> v = completed.poll(timeout, unit);
+            if (v != null) {
+                taken++;
+            }
+            return v;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ValuableException(e);
+        }
+    }
+
+    @Override
+    public Iterator<Valuable<T>> iterator() {
+        return new Iterator<Valuable<T>>() {
+            @Override
+            public boolean hasNext() {
+                return taken < inputs.length;
+            }
+
+            @Override
+            public Valuable<T> next() {
+                return take();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * 每个 Valuable 完成后在 scheduler 上回调 consumer，回调不会并发，顺序和完成顺序一致。只能调用一次
+     */
+    public void subscribe(Consumer<? super Valuable<T>> consumer, Scheduler scheduler) {
+        ObjectHelper.requireNonNull(consumer);
+        ObjectHelper.requireNonNull(scheduler);
+        if (scheduler == Schedulers.upstream()) {
+            throw new IllegalArgumentException("Can't use Schedulers.upStream() to subscribe.");
+        }
+        synchronized (this) {
+            if (this.consumer != null) {
+                throw new IllegalStateException("Already subscribed.");
+            }
+            this.scheduler = scheduler;
+            this.consumer = consumer;
+        }
+        drain();
+    }
+
+    /**
+     * 取消所有尚未完成的 Valuable，它们会以取消的状态给出
+     */
+    @Override
+    public void cancel() {
+        canceled = true;
+        for (Valuable<T> v : inputs) {
+            if (v != null) {
+                v.cancel();
+            }
+        }
+    }
+
+    @Override
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    private void onDone(int index) {
+        Valuable<T> v = inputs[index];
+        inputs[index] = null;
+        completed.offer(v);
+        if (consumer != null) {
+            drain();
+        }
+    }
+
+    /**
+     * 回调不会因为过载被丢弃，线程池过载时在当前线程执行
+     */
+    private void drain() {
+        if (wip.getAndIncrement() == 0) {
+            try {
+                scheduler.schedule(this::drainLoop);
+            } catch (OverloadException e) {
+                drainLoop();
+            }
+        }
+    }
+
+    private void drainLoop() {
+        Consumer<? super Valuable<T>> c = consumer;
+        int missed = 1;
+        do {
+            Valuable<T> v;
+            while ((v = completed.poll()) != null) {
+                taken++;
+                try {
+                    c.accept(v);
+                } catch (RuntimeException e) {
+                    Thread t = Thread.currentThread();
+                    Thread.UncaughtExceptionHandler handler = t.getUncaughtExceptionHandler();
+                    if (handler != null) {
+                        handler.uncaughtException(t, e);
+                    }
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    final class Slot implements Consumer<Object> {
+        private final int index;
+
+        Slot(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void accept(Object o) {
+            onDone(index);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.dieyidezui.valuable;
+
+import com.dieyidezui.valuable.metrics.Histogram;
+
+/**
+ * 在 Priority.LOW 的 Scheduler 上排队的 Valuable 被提升的次数：
+ * 阻塞的 get() 在等待的线程直接执行尚未开始的任务，timeout 的 get() 和注册回调则以 Priority.HIGH 重新提交。
+ * created by dieyidezui on 2019/1/16.
+ */
+public final class PromotionStats {
+    public final long inline;
+    public final long resubmitted;
+    /**
+     * 提升后开始执行到原来排队的任务轮到之间的时间，即节省的排队时间。
+     * 原来的任务轮到时才记录，因此比提升次数少
+     */
+    public final Histogram.Snapshot saved;
+
+    PromotionStats(long inline, long resubmitted, Histogram.Snapshot saved) {
+        this.inline = inline;
+        this.resubmitted = resubmitted;
+        this.saved = saved;
+    }
+
+    @Override
+    public String toString() {
+        return "PromotionStats{inline=" + inline + ", resubmitted=" + resubmitted + ", saved=" + saved + '}';
+    }
+}
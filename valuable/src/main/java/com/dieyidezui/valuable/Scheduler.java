@@ -1,13 +1,25 @@
 package com.dieyidezui.valuable;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * 自定义的 Scheduler 可以通过 {@link com.dieyidezui.valuable.shedulers.Schedulers#from(String, Executor)} 创建
  * created by dieyidezui on 2018/8/2.
  */
 public interface Scheduler {
 
     void schedule(Runnable command);
 
+    /**
+     * delay 之后再调度 command，等待期间不占用线程
+     */
+    Cancelable schedule(Runnable command, long delay, TimeUnit unit);
+
+    /**
+     * 以固定的频率调度 command，上一次执行完之前不会开始下一次，command 抛出异常后不再调度
+     */
+    Cancelable schedulePeriodically(Runnable command, long initialDelay, long period, TimeUnit unit);
+
     Executor executor();
 }
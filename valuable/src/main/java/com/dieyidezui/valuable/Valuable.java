@@ -5,28 +5,41 @@ import android.util.Pair;
 
 import com.dieyidezui.valuable.exceptions.ValuableException;
 import com.dieyidezui.valuable.function.Consumer;
+import com.dieyidezui.valuable.function.BiFunction;
 import com.dieyidezui.valuable.function.Function;
+import com.dieyidezui.valuable.function.Function3;
+import com.dieyidezui.valuable.function.Function4;
+import com.dieyidezui.valuable.function.Function5;
+import com.dieyidezui.valuable.function.Function6;
 import com.dieyidezui.valuable.function.Supplier;
 import com.dieyidezui.valuable.internal.util.ObjectHelper;
 import com.dieyidezui.valuable.internal.valuables.BaseValuable;
 import com.dieyidezui.valuable.internal.valuables.CombineValuable;
+import com.dieyidezui.valuable.internal.valuables.DelayedValuable;
 import com.dieyidezui.valuable.internal.valuables.FlatMapValuable;
 import com.dieyidezui.valuable.internal.valuables.ForeverValuable;
 import com.dieyidezui.valuable.internal.valuables.MapValuable;
 import com.dieyidezui.valuable.internal.valuables.OnErrorResumeValuable;
+import com.dieyidezui.valuable.internal.valuables.ParallelMapValuable;
+import com.dieyidezui.valuable.internal.valuables.RaceValuable;
+import com.dieyidezui.valuable.internal.valuables.RetryValuable;
+import com.dieyidezui.valuable.internal.valuables.TimeoutValuable;
+import com.dieyidezui.valuable.internal.valuables.ZipValuable;
 import com.dieyidezui.valuable.shedulers.Schedulers;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The Valuable is like composition of RxJava's Single and CompletableFuture, but more simple and lite weight.
  * created by dieyidezui on 2018/8/2.
  */
 @SuppressWarnings({"unused", "WeakerAccess", "unchecked", "NullableProblems"})
-public abstract class Valuable<T> implements Supplier<T> {
+public abstract class Valuable<T> implements Supplier<T>, Cancelable {
 
     /**
      * 创建一个空的 Valuable， 随后可以手动调用 notifyResult / notifyError
@@ -94,11 +107,94 @@ public abstract class Valuable<T> implements Supplier<T> {
         return create(ObjectHelper.requireNonNull(callable), scheduler);
     }
 
+    public static <R> Valuable<R> callInterruptibly(Callable<R> callable) {
+        return callInterruptibly(callable, Schedulers.io());
+    }
+
+    /**
+     * 和 {@link #call(Callable, Scheduler)} 相同，但是 callable 执行期间被取消会中断执行它的线程，
+     * 适合可以响应中断的阻塞操作。callable 返回后中断标记会被清除，不会影响线程之后执行的任务
+     */
+    public static <R> Valuable<R> callInterruptibly(Callable<R> callable, Scheduler scheduler) {
+        return create(ObjectHelper.requireNonNull(callable), scheduler, true);
+    }
+
     private static <R> Valuable<R> create(@Nullable Callable<R> callable, Scheduler scheduler) {
+        return create(callable, scheduler, false);
+    }
+
+    private static <R> Valuable<R> create(@Nullable Callable<R> callable, Scheduler scheduler, boolean interruptible) {
+        if (scheduler == Schedulers.upstream()) {
+            throw new IllegalArgumentException("Can't use Schedulers.upStream() to create a top Valuable.");
+        }
+        return new BaseValuable<>(callable, ObjectHelper.requireNonNull(scheduler), null, interruptible);
+    }
+
+    /**
+     * delay 之后以 null 完成，Scheduler 为默认回调线程
+     */
+    public static Valuable<Void> timer(long delay, TimeUnit unit) {
+        return timer(delay, unit, Schedulers.computation());
+    }
+
+    public static Valuable<Void> timer(long delay, TimeUnit unit, Scheduler scheduler) {
+        return delay(() -> null, delay, unit, scheduler);
+    }
+
+    /**
+     * delay 之后再调度 callable，等待期间不占用线程
+     */
+    public static <R> Valuable<R> delay(Callable<R> callable, long delay, TimeUnit unit) {
+        return delay(callable, delay, unit, Schedulers.io());
+    }
+
+    public static <R> Valuable<R> delay(Callable<R> callable, long delay, TimeUnit unit, Scheduler scheduler) {
         if (scheduler == Schedulers.upstream()) {
             throw new IllegalArgumentException("Can't use Schedulers.upStream() to create a top Valuable.");
         }
-        return new BaseValuable<>(callable, ObjectHelper.requireNonNull(scheduler), null);
+        return new DelayedValuable<>(ObjectHelper.requireNonNull(callable), delay,
+                ObjectHelper.requireNonNull(unit), ObjectHelper.requireNonNull(scheduler));
+    }
+
+    /**
+     * 从 source 获取 Valuable，失败时立即重新获取，最多重试 times 次
+     */
+    public static <R> Valuable<R> retry(Supplier<? extends Valuable<? extends R>> source, int times) {
+        return retryWhen(source, Backoff.immediate(times));
+    }
+
+    public static <R> Valuable<R> retryWhen(Supplier<? extends Valuable<? extends R>> source, Backoff backoff) {
+        return retryWhen(source, backoff, Schedulers.immediate());
+    }
+
+    /**
+     * 从 source 获取 Valuable，失败时按 backoff 等待后重新获取，等待期间不占用线程，取消时停止重试
+     *
+     * @param scheduler 重新获取 source 的线程，以及默认回调线程
+     */
+    public static <R> Valuable<R> retryWhen(Supplier<? extends Valuable<? extends R>> source, Backoff backoff, Scheduler scheduler) {
+        if (scheduler == Schedulers.upstream()) {
+            throw new IllegalArgumentException("Can't use Schedulers.upStream() to create a top Valuable.");
+        }
+        return new RetryValuable<>(ObjectHelper.requireNonNull(source),
+                ObjectHelper.requireNonNull(backoff), ObjectHelper.requireNonNull(scheduler));
+    }
+
+    /**
+     * 安装 tracer，之后创建的 Valuable 会记录各阶段的时间点，传 null 则移除
+     *
+     * @see com.dieyidezui.valuable.metrics.StageMetrics
+     */
+    public static void setTracer(@Nullable ValuableTracer tracer) {
+        BaseValuable.setTracer(tracer);
+    }
+
+    /**
+     * 在低优先级 Scheduler 上排队的 Valuable 因为 get() 或者注册回调而被提升的统计
+     */
+    public static PromotionStats promotionStats() {
+        return new PromotionStats(BaseValuable.promotions(true), BaseValuable.promotions(false),
+                BaseValuable.promotionSaved());
     }
 
     /**
@@ -109,15 +205,171 @@ public abstract class Valuable<T> implements Supplier<T> {
     }
 
     public static <R> Valuable<R> combine(Function<Object[], ? extends R> combiner, List<Valuable<?>> valuables, Scheduler scheduler) {
+        checkCombineScheduler(scheduler);
+        return new CombineValuable<>(ObjectHelper.requireNonNull(combiner), ObjectHelper.requireNonNull(valuables), scheduler);
+    }
+
+    /**
+     * 所有 Valuable 都成功时，按顺序以它们的结果组成的 List 成功，任一失败则失败，取消时取消所有输入
+     */
+    public static <R> Valuable<List<R>> allOf(List<? extends Valuable<? extends R>> valuables) {
+        return allOf(valuables, Schedulers.immediate());
+    }
+
+    public static <R> Valuable<List<R>> allOf(List<? extends Valuable<? extends R>> valuables, Scheduler scheduler) {
+        checkCombineScheduler(scheduler);
+        return new CombineValuable<>(values -> Collections.unmodifiableList(Arrays.asList((R[]) values)),
+                ObjectHelper.requireNonNull(valuables), scheduler);
+    }
+
+    public static <T, R> Valuable<List<R>> parallelMap(Iterable<? extends T> source,
+                                                       Function<? super T, ? extends Valuable<? extends R>> mapper,
+                                                       int maxConcurrency) {
+        return parallelMap(source, mapper, maxConcurrency, Schedulers.immediate());
+    }
+
+    /**
+     * 对 source 的每个元素调用 mapper，同时进行中的 Valuable 不超过 maxConcurrency 个，每完成一个再取下一个元素，
+     * 结果按 source 的顺序组成 List。任一失败则失败，取消时不再取新的元素并取消进行中的 Valuable。
+     * mapper 在上一个完成的 Valuable 的线程中调用，只应该创建 Valuable，不要在其中做耗时的工作
+     */
+    public static <T, R> Valuable<List<R>> parallelMap(Iterable<? extends T> source,
+                                                       Function<? super T, ? extends Valuable<? extends R>> mapper,
+                                                       int maxConcurrency, Scheduler scheduler) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("maxConcurrency must be positive");
+        }
+        checkCombineScheduler(scheduler);
+        return new ParallelMapValuable<>(ObjectHelper.requireNonNull(source), ObjectHelper.requireNonNull(mapper),
+                maxConcurrency, scheduler);
+    }
+
+    /**
+     * 按完成的顺序依次给出 valuables，不需要等待最慢的一个
+     */
+    public static <R> CompletionStream<R> inCompletionOrder(List<? extends Valuable<? extends R>> valuables) {
+        return new CompletionStream<>(ObjectHelper.requireNonNull(valuables));
+    }
+
+    /**
+     * 以第一个完成的 Valuable 的结果完成，无论成功、失败还是取消，随后取消其他的 Valuable
+     */
+    @SafeVarargs
+    @SuppressWarnings("varargs")
+    public static <R> Valuable<R> race(Valuable<? extends R>... valuables) {
+        return race(Arrays.asList(valuables), Schedulers.immediate());
+    }
+
+    public static <R> Valuable<R> race(List<? extends Valuable<? extends R>> valuables, Scheduler scheduler) {
+        checkCombineScheduler(scheduler);
+        return new RaceValuable<>(ObjectHelper.requireNonNull(valuables), false, scheduler);
+    }
+
+    /**
+     * 以第一个成功的 Valuable 的结果完成，随后取消其他的 Valuable，全部失败时以最后一个异常失败
+     */
+    @SafeVarargs
+    @SuppressWarnings("varargs")
+    public static <R> Valuable<R> firstSuccess(Valuable<? extends R>... valuables) {
+        return firstSuccess(Arrays.asList(valuables), Schedulers.immediate());
+    }
+
+    public static <R> Valuable<R> firstSuccess(List<? extends Valuable<? extends R>> valuables, Scheduler scheduler) {
+        checkCombineScheduler(scheduler);
+        return new RaceValuable<>(ObjectHelper.requireNonNull(valuables), true, scheduler);
+    }
+
+    public static <A, B, R> Valuable<R> zip(Valuable<A> a, Valuable<B> b,
+                                            BiFunction<? super A, ? super B, ? extends R> zipper) {
+        return zip(a, b, zipper, Schedulers.computation());
+    }
+
+    /**
+     * 和 combine 相同，但 zipper 的参数是有类型的
+     */
+    public static <A, B, R> Valuable<R> zip(Valuable<A> a, Valuable<B> b,
+                                            BiFunction<? super A, ? super B, ? extends R> zipper, Scheduler scheduler) {
+        ObjectHelper.requireNonNull(zipper);
+        return zipFields(a, b, null, null, null, null, (x0, x1, x2, x3, x4, x5) -> zipper.apply((A) x0, (B) x1), scheduler);
+    }
+
+    public static <A, B, C, R> Valuable<R> zip(Valuable<A> a, Valuable<B> b, Valuable<C> c,
+                                               Function3<? super A, ? super B, ? super C, ? extends R> zipper) {
+        return zip(a, b, c, zipper, Schedulers.computation());
+    }
+
+    public static <A, B, C, R> Valuable<R> zip(Valuable<A> a, Valuable<B> b, Valuable<C> c,
+                                               Function3<? super A, ? super B, ? super C, ? extends R> zipper, Scheduler scheduler) {
+        ObjectHelper.requireNonNull(zipper);
+        ObjectHelper.requireNonNull(c);
+        return zipFields(a, b, c, null, null, null, (x0, x1, x2, x3, x4, x5) -> zipper.apply((A) x0, (B) x1, (C) x2), scheduler);
+    }
+
+    public static <A, B, C, D, R> Valuable<R> zip(Valuable<A> a, Valuable<B> b, Valuable<C> c, Valuable<D> d,
+                                                  Function4<? super A, ? super B, ? super C, ? super D, ? extends R> zipper) {
+        return zip(a, b, c, d, zipper, Schedulers.computation());
+    }
+
+    public static <A, B, C, D, R> Valuable<R> zip(Valuable<A> a, Valuable<B> b, Valuable<C> c, Valuable<D> d,
+                                                  Function4<? super A, ? super B, ? super C, ? super D, ? extends R> zipper, Scheduler scheduler) {
+        ObjectHelper.requireNonNull(zipper);
+        ObjectHelper.requireNonNull(c);
+        ObjectHelper.requireNonNull(d);
+        return zipFields(a, b, c, d, null, null, (x0, x1, x2, x3, x4, x5) -> zipper.apply((A) x0, (B) x1, (C) x2, (D) x3), scheduler);
+    }
+
+    public static <A, B, C, D, E, R> Valuable<R> zip(Valuable<A> a, Valuable<B> b, Valuable<C> c, Valuable<D> d, Valuable<E> e,
+                                                     Function5<? super A, ? super B, ? super C, ? super D, ? super E, ? extends R> zipper) {
+        return zip(a, b, c, d, e, zipper, Schedulers.computation());
+    }
+
+    public static <A, B, C, D, E, R> Valuable<R> zip(Valuable<A> a, Valuable<B> b, Valuable<C> c, Valuable<D> d, Valuable<E> e,
+                                                     Function5<? super A, ? super B, ? super C, ? super D, ? super E, ? extends R> zipper, Scheduler scheduler) {
+        ObjectHelper.requireNonNull(zipper);
+        ObjectHelper.requireNonNull(c);
+        ObjectHelper.requireNonNull(d);
+        ObjectHelper.requireNonNull(e);
+        return zipFields(a, b, c, d, e, null, (x0, x1, x2, x3, x4, x5) -> zipper.apply((A) x0, (B) x1, (C) x2, (D) x3, (E) x4), scheduler);
+    }
+
+    public static <A, B, C, D, E, F, R> Valuable<R> zip(Valuable<A> a, Valuable<B> b, Valuable<C> c, Valuable<D> d, Valuable<E> e, Valuable<F> f,
+                                                        Function6<? super A, ? super B, ? super C, ? super D, ? super E, ? super F, ? extends R> zipper) {
+        return zip(a, b, c, d, e, f, zipper, Schedulers.computation());
+    }
+
+    public static <A, B, C, D, E, F, R> Valuable<R> zip(Valuable<A> a, Valuable<B> b, Valuable<C> c, Valuable<D> d, Valuable<E> e, Valuable<F> f,
+                                                        Function6<? super A, ? super B, ? super C, ? super D, ? super E, ? super F, ? extends R> zipper, Scheduler scheduler) {
+        ObjectHelper.requireNonNull(zipper);
+        ObjectHelper.requireNonNull(c);
+        ObjectHelper.requireNonNull(d);
+        ObjectHelper.requireNonNull(e);
+        ObjectHelper.requireNonNull(f);
+        return zipFields(a, b, c, d, e, f, (x0, x1, x2, x3, x4, x5) -> zipper.apply((A) x0, (B) x1, (C) x2, (D) x3, (E) x4, (F) x5), scheduler);
+    }
+
+    /**
+     * 前两个输入不能为 null，其余为 null 表示没有该输入
+     */
+    private static <R> Valuable<R> zipFields(Valuable<?> a, Valuable<?> b, Valuable<?> c, Valuable<?> d, Valuable<?> e, Valuable<?> f,
+                                             Function6<Object, Object, Object, Object, Object, Object, ? extends R> zipper, Scheduler scheduler) {
+        checkCombineScheduler(scheduler);
+        ObjectHelper.requireNonNull(a);
+        ObjectHelper.requireNonNull(b);
+        return new ZipValuable<>(a, b, c, d, e, f, zipper, scheduler);
+    }
+
+    private static void checkCombineScheduler(Scheduler scheduler) {
         if (ObjectHelper.requireNonNull(scheduler).equals(Schedulers.upstream())) {
             throw new IllegalArgumentException("Can't use Schedulers.upStream() combine Valuables.");
         }
-        return new CombineValuable<>(ObjectHelper.requireNonNull(combiner), ObjectHelper.requireNonNull(valuables), scheduler);
     }
 
+    /**
+     * 推荐使用 {@link #zip(Valuable, Valuable, BiFunction, Scheduler)}，不需要创建 Pair
+     */
     public final <U, R> Valuable<R> combineWith(Valuable<U> valuable, Function<Pair<T, U>, ? extends R> combiner, Scheduler scheduler) {
         ObjectHelper.requireNonNull(combiner);
-        return combine(objects -> combiner.apply(new Pair<>((T) objects[0], (U) objects[1])), Arrays.asList(this, valuable), scheduler);
+        return zip(this, valuable, (t, u) -> combiner.apply(new Pair<>(t, u)), scheduler);
     }
 
     /**
@@ -160,6 +412,13 @@ public abstract class Valuable<T> implements Supplier<T> {
         return new OnErrorResumeValuable<>(this, ObjectHelper.requireNonNull(resumer), ObjectHelper.requireNonNull(scheduler));
     }
 
+    /**
+     * 超时后以 {@link com.dieyidezui.valuable.exceptions.TimeoutException} 失败，并取消上游
+     */
+    public final Valuable<T> timeout(long timeout, TimeUnit unit) {
+        return new TimeoutValuable<>(this, timeout, ObjectHelper.requireNonNull(unit));
+    }
+
     /**
      * 不允许 cancel
      */
@@ -170,6 +429,11 @@ public abstract class Valuable<T> implements Supplier<T> {
         return new ForeverValuable(this);
     }
 
+    /**
+     * 命名，用于 {@link ValuableTracer} 按名字统计各阶段的耗时，返回自身
+     */
+    public abstract Valuable<T> name(String name);
+
     /**
      * 注册成功的回调，返回自身
      */
@@ -204,6 +468,15 @@ public abstract class Valuable<T> implements Supplier<T> {
     @Override
     public abstract T get() throws ValuableException;
 
+    /**
+     * 最多等待 timeout，超时不会取消任务
+     *
+     * @throws com.dieyidezui.valuable.exceptions.TimeoutException 超时
+     * @throws ValuableException 出现异常、取消或者等待时被中断
+     */
+    @Nullable
+    public abstract T get(long timeout, TimeUnit unit) throws ValuableException;
+
     /**
      * 如果出错或者尚未完成，则返回默认值
      */
@@ -213,11 +486,13 @@ public abstract class Valuable<T> implements Supplier<T> {
     /**
      * 取消任务
      */
+    @Override
     public abstract void cancel();
 
     /**
      * 是否已取消
      */
+    @Override
     public abstract boolean isCanceled();
 
     /**
@@ -0,0 +1,214 @@
+package com.dieyidezui.valuable;
+
+import com.dieyidezui.valuable.function.Function;
+import com.dieyidezui.valuable.internal.util.ObjectHelper;
+import com.dieyidezui.valuable.internal.valuables.BaseValuable;
+import com.dieyidezui.valuable.shedulers.Schedulers;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按 key 缓存 loader 返回的 Valuable：同一个 key 的并发请求共享同一个加载中的 Valuable，
+ * 成功的结果按容量（LRU）和存活时间淘汰，失败或者取消的不缓存。
+ * key 按 hash 分到多个 segment，每个 segment 单独加锁，容量和 LRU 也是按 segment 计算的。
+ * 返回的 Valuable 是共享的，cancel 会影响同一个 key 的所有调用方，并将其移出缓存；
+ * 已经成功的 Valuable 被取消后，下一次 get 视为未命中，重新加载。
+ * loader 在 segment 的锁内调用，只应该创建 Valuable，不要在其中做耗时的工作。
+ * created by dieyidezui on 2019/1/4.
+ */
+@SuppressWarnings("unchecked")
+public class ValuableCache<K, V> {
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private final Function<? super K, ? extends Valuable<V>> loader;
+    private final long ttlNanos;
+    private final Segment<K, V>[] segments;
+
+    /**
+     * @param maxSize 总容量，按 segment 均分，各 segment 的容量之和恰好为 maxSize
+     * @param ttl     从加载完成开始计算，小于等于 0 表示不过期
+     */
+    public ValuableCache(int maxSize, long ttl, TimeUnit unit, Function<? super K, ? extends Valuable<V>> loader) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.loader = ObjectHelper.requireNonNull(loader);
+        this.ttlNanos = unit.toNanos(ttl);
+        int n = Math.min(MAX_SEGMENTS, Integer.highestOneBit(maxSize));
+        // n 不超过 maxSize，每个 segment 至少为 1，余数分给前面的 segment
+        int perSegment = maxSize / n;
+        int remainder = maxSize % n;
+        segments = new Segment[n];
+        for (int i = 0; i < n; i++) {
+            segments[i] = new Segment<>(i < remainder ? perSegment + 1 : perSegment);
+        }
+    }
+
+    public Valuable<V> get(K key) {
+        ObjectHelper.requireNonNull(key);
+        Segment<K, V> seg = segmentFor(key);
+        Node<V> e;
+        synchronized (seg) {
+            e = seg.get(key);
+            if (e != null && e.valuable.isCanceled()) {
+                // 只算作未命中，不是淘汰
+                seg.remove(key);
+                e = null;
+            }
+            if (e != null) {
+                if (e.loadedAt == 0) {
+                    seg.coalesced++;
+                    return e.valuable;
+                }
+                if (ttlNanos <= 0 || System.nanoTime() - e.loadedAt < ttlNanos) {
+                    seg.hits++;
+                    return e.valuable;
+                }
+                seg.remove(key);
+                seg.evictions++;
+            }
+            seg.misses++;
+            Valuable<V> v;
+            try {
+                v = ObjectHelper.requireNonNull(loader.apply(key), "loader returns null");
+            } catch (Exception ex) {
+                return (Valuable<V>) Valuable.error(ex);
+            }
+            e = new Node<>(v);
+            seg.put(key, e);
+        }
+        Node<V> entry = e;
+        BaseValuable.observe(entry.valuable,
+                t -> loaded(seg, entry),
+                ex -> invalidate(seg, key, entry),
+                Schedulers.immediate());
+        return entry.valuable;
+    }
+
+    public void invalidate(K key) {
+        Segment<K, V> seg = segmentFor(ObjectHelper.requireNonNull(key));
+        synchronized (seg) {
+            seg.remove(key);
+        }
+    }
+
+    public void invalidateAll() {
+        for (Segment<K, V> seg : segments) {
+            synchronized (seg) {
+                seg.clear();
+            }
+        }
+    }
+
+    /**
+     * 包括加载中的
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> seg : segments) {
+            synchronized (seg) {
+                size += seg.size();
+            }
+        }
+        return size;
+    }
+
+    public Stats stats() {
+        long hits = 0, misses = 0, coalesced = 0, evictions = 0;
+        for (Segment<K, V> seg : segments) {
+            synchronized (seg) {
+                hits += seg.hits;
+                misses += seg.misses;
+                coalesced += seg.coalesced;
+                evictions += seg.evictions;
+            }
+        }
+        return new Stats(hits, misses, coalesced, evictions);
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return segments[h & (segments.length - 1)];
+    }
+
+    private void loaded(Segment<K, V> seg, Node<V> e) {
+        synchronized (seg) {
+            e.loadedAt = Math.max(1, System.nanoTime());
+        }
+    }
+
+    private void invalidate(Segment<K, V> seg, K key, Node<V> e) {
+        synchronized (seg) {
+            if (seg.get(key) == e) {
+                seg.remove(key);
+            }
+        }
+    }
+
+    public static final class Stats {
+        public final long hits;
+        public final long misses;
+        /**
+         * 共享了加载中的 Valuable 的请求数
+         */
+        public final long coalesced;
+        /**
+         * 因为容量或者过期被淘汰的数量
+         */
+        public final long evictions;
+
+        Stats(long hits, long misses, long coalesced, long evictions) {
+            this.hits = hits;
+            this.misses = misses;
+            this.coalesced = coalesced;
+            this.evictions = evictions;
+        }
+
+        @Override
+        public String toString() {
+            return "{hits=" + hits + ", misses=" + misses + ", coalesced=" + coalesced
+                    + ", evictions=" + evictions + '}';
+        }
+    }
+
+    static final class Node<V> {
+        final Valuable<V> valuable;
+        /**
+         * 加载完成的时间，加载中为 0，由 segment 的锁保护
+         */
+        long loadedAt;
+
+        Node(Valuable<V> valuable) {
+            this.valuable = valuable;
+        }
+    }
+
+    /**
+     * 访问顺序的 LinkedHashMap，所有操作和计数都由自身的锁保护
+     */
+    static final class Segment<K, V> extends LinkedHashMap<K, Node<V>> {
+        private final int maxSize;
+        long hits;
+        long misses;
+        long coalesced;
+        long evictions;
+
+        Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, Node<V>> eldest) {
+            if (size() > maxSize) {
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+    }
+}
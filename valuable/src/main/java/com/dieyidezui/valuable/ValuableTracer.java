@@ -0,0 +1,43 @@
+package com.dieyidezui.valuable;
+
+/**
+ * 记录 Valuable 各阶段的耗时，通过 {@link Valuable#setTracer(ValuableTracer)} 安装，未安装时没有额外开销。
+ * 只有安装之后创建、并且通过 {@link Valuable#name(String)} 命名过的 Valuable 才会被记录。
+ * created by dieyidezui on 2018/12/26.
+ */
+public interface ValuableTracer {
+
+    enum Stage {
+        /**
+         * 从 schedule（或者上游完成）到开始执行
+         */
+        QUEUE,
+        /**
+         * callable / mapper / resumer 的执行耗时
+         */
+        RUN,
+        /**
+         * flatMap 返回的 Valuable 从创建到完成
+         */
+        INNER,
+        /**
+         * 从完成到开始回调观察者
+         */
+        DISPATCH,
+        /**
+         * 观察者的执行耗时
+         */
+        CALLBACK,
+        /**
+         * 从创建到完成
+         */
+        TOTAL
+    }
+
+    /**
+     * 可能在任意线程调用，需要线程安全
+     *
+     * @param nanos 耗时，单位纳秒
+     */
+    void record(String name, Stage stage, long nanos);
+}
@@ -0,0 +1,10 @@
+package com.dieyidezui.valuable.exceptions;
+
+/**
+ * 线程池过载，任务被拒绝或者被丢弃
+ */
+public class OverloadException extends ValuableException {
+    public OverloadException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,10 @@
+package com.dieyidezui.valuable.exceptions;
+
+/**
+ * get(long, TimeUnit) 或者 timeout 操作符超时
+ */
+public class TimeoutException extends ValuableException {
+    public TimeoutException(String message) {
+        super(message);
+    }
+}
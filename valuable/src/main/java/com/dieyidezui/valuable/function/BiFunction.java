@@ -0,0 +1,9 @@
+package com.dieyidezui.valuable.function;
+
+/**
+ * created by dieyidezui on 2019/1/8.
+ */
+public interface BiFunction<A, B, R> {
+
+    R apply(A a, B b) throws Exception;
+}
@@ -0,0 +1,9 @@
+package com.dieyidezui.valuable.function;
+
+/**
+ * created by dieyidezui on 2019/1/8.
+ */
+public interface Function3<A, B, C, R> {
+
+    R apply(A a, B b, C c) throws Exception;
+}
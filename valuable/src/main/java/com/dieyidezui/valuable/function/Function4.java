@@ -0,0 +1,9 @@
+package com.dieyidezui.valuable.function;
+
+/**
+ * created by dieyidezui on 2019/1/8.
+ */
+public interface Function4<A, B, C, D, R> {
+
+    R apply(A a, B b, C c, D d) throws Exception;
+}
@@ -0,0 +1,9 @@
+package com.dieyidezui.valuable.function;
+
+/**
+ * created by dieyidezui on 2019/1/8.
+ */
+public interface Function5<A, B, C, D, E, R> {
+
+    R apply(A a, B b, C c, D d, E e) throws Exception;
+}
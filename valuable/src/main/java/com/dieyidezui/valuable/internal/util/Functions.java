@@ -25,8 +25,11 @@ public class Functions {
             this.supplier = supplier;
         }
 
+        /**
+         * 同步，避免并发时 supplier 被调用多次
+         */
         @Override
-        protected T create() {
+        protected synchronized T create() {
             T t = null;
             Supplier<T> s = supplier;
             supplier = null; // avoid memory leak
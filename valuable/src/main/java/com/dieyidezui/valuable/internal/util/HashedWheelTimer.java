@@ -0,0 +1,280 @@
+package com.dieyidezui.valuable.internal.util;
+
+import android.support.annotation.Nullable;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * 时间轮定时器，所有定时任务共用一个线程，添加和取消都是 O(1)，精度为一个 tick。
+ * 任务在定时器线程执行，必须很快返回，耗时的工作应该交给 Scheduler。
+ * 没有定时任务时线程一直等待，不会每个 tick 都醒来。
+ * created by dieyidezui on 2018/12/28.
+ */
+public final class HashedWheelTimer {
+
+    private static final HashedWheelTimer SHARED = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 512);
+
+    /**
+     * 每个 tick 最多从 pending 转移的任务数，避免大量添加时饿死到期的任务
+     */
+    private static final int MAX_TRANSFER = 100000;
+    /**
+     * 约 146 年，更长的延时按这个处理，避免计算 deadline 时溢出
+     */
+    private static final long MAX_DELAY_NANOS = Long.MAX_VALUE / 2;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startTime = System.nanoTime();
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    /**
+     * 尚未到期也未取消的任务数，为 0 时线程等待在 lock 上
+     */
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final Object lock = new Object();
+    private Thread thread;
+
+    /**
+     * 只在定时器线程访问
+     */
+    private long tick;
+
+    public HashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        if (tickDuration <= 0 || ticksPerWheel <= 0) {
+            throw new IllegalArgumentException();
+        }
+        tickNanos = unit.toNanos(tickDuration);
+        int n = 1;
+        while (n < ticksPerWheel) {
+            n <<= 1;
+        }
+        wheel = new Bucket[n];
+        for (int i = 0; i < n; i++) {
+            wheel[i] = new Bucket();
+        }
+        mask = n - 1;
+    }
+
+    public static HashedWheelTimer shared() {
+        return SHARED;
+    }
+
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        ObjectHelper.requireNonNull(task);
+        long deadline = System.nanoTime() - startTime + Math.min(Math.max(0, unit.toNanos(delay)), MAX_DELAY_NANOS);
+        Timeout t = new Timeout(this, task, deadline);
+        start();
+        pending.offer(t);
+        if (outstanding.getAndIncrement() == 0) {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+        return t;
+    }
+
+    private synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(this::loop, "Valuable-timer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void loop() {
+        for (; ; ) {
+            awaitNextTick();
+            processCancelled();
+            transferPending();
+            wheel[(int) (tick & mask)].expire();
+            tick++;
+        }
+    }
+
+    private void awaitNextTick() {
+        if (outstanding.get() == 0) {
+            synchronized (lock) {
+                while (outstanding.get() == 0) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+            }
+            // 等待期间的 tick 上没有任务，直接跳过
+            tick = Math.max(tick, (System.nanoTime() - startTime) / tickNanos);
+        }
+        long deadline = tickNanos * (tick + 1);
+        for (; ; ) {
+            long now = System.nanoTime() - startTime;
+            long sleepMs = (deadline - now + 999999) / 1000000;
+            if (sleepMs <= 0) {
+                return;
+            }
+            try {
+                Thread.sleep(sleepMs);
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+
+    private void processCancelled() {
+        Timeout t;
+        while ((t = cancelled.poll()) != null) {
+            if (t.bucket != null) {
+                t.bucket.remove(t);
+            }
+        }
+    }
+
+    private void transferPending() {
+        for (int i = 0; i < MAX_TRANSFER; i++) {
+            Timeout t = pending.poll();
+            if (t == null) {
+                return;
+            }
+            if (t.state != Timeout.INIT) {
+                continue;
+            }
+            long calculated = t.deadline / tickNanos;
+            t.rounds = (calculated - tick) / wheel.length;
+            // 已经过期的放到当前 tick
+            long ticks = Math.max(calculated, tick);
+            wheel[(int) (ticks & mask)].add(t);
+        }
+    }
+
+    /**
+     * 任务可能是在定时器线程直接执行的用户回调，任何异常（包括 Error）都不能终止共享的定时器线程
+     */
+    private static void runTask(Runnable task) {
+        try {
+            task.run();
+        } catch (Throwable e) {
+            Thread t = Thread.currentThread();
+            Thread.UncaughtExceptionHandler handler = t.getUncaughtExceptionHandler();
+            if (handler != null) {
+                handler.uncaughtException(t, e);
+            }
+        }
+    }
+
+    public static final class Timeout {
+        static final int INIT = 0;
+        static final int CANCELLED = 1;
+        static final int EXPIRED = 2;
+
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final HashedWheelTimer timer;
+        private final Runnable task;
+        private final long deadline;
+        private volatile int state;
+
+        /**
+         * 以下字段只在定时器线程访问
+         */
+        long rounds;
+        @Nullable
+        Bucket bucket;
+        @Nullable
+        Timeout prev;
+        @Nullable
+        Timeout next;
+
+        Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return false 如果已经到期或者已经取消
+         */
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, INIT, CANCELLED)) {
+                return false;
+            }
+            timer.outstanding.decrementAndGet();
+            timer.cancelled.offer(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        void expire() {
+            if (STATE.compareAndSet(this, INIT, EXPIRED)) {
+                timer.outstanding.decrementAndGet();
+                runTask(task);
+            }
+        }
+    }
+
+    /**
+     * 双向链表，只在定时器线程访问
+     */
+    static final class Bucket {
+        @Nullable
+        private Timeout head;
+        @Nullable
+        private Timeout tail;
+
+        void add(Timeout t) {
+            t.bucket = this;
+            if (head == null) {
+                head = tail = t;
+            } else {
+                tail.next = t;
+                t.prev = tail;
+                tail = t;
+            }
+        }
+
+        void expire() {
+            Timeout t = head;
+            while (t != null) {
+                Timeout next = t.next;
+                if (t.rounds <= 0) {
+                    remove(t);
+                    t.expire();
+                } else if (t.isCancelled()) {
+                    remove(t);
+                } else {
+                    t.rounds--;
+                }
+                t = next;
+            }
+        }
+
+        void remove(Timeout t) {
+            if (t.bucket != this) {
+                return;
+            }
+            Timeout next = t.next;
+            if (t.prev != null) {
+                t.prev.next = next;
+            }
+            if (next != null) {
+                next.prev = t.prev;
+            }
+            if (t == head) {
+                head = next;
+            }
+            if (t == tail) {
+                tail = t.prev;
+            }
+            t.prev = null;
+            t.next = null;
+            t.bucket = null;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.dieyidezui.valuable.internal.util;
+
+/**
+ * 可以被线程池拒绝的任务，被丢弃时会收到通知，而不是永远不执行
+ * created by dieyidezui on 2018/12/22.
+ */
+public interface Rejectable {
+
+    void reject(Exception e);
+}
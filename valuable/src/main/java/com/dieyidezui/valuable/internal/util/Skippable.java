@@ -0,0 +1,17 @@
+package com.dieyidezui.valuable.internal.util;
+
+/**
+ * 排队期间可能变得不再需要执行的任务（例如所属的 Valuable 已被取消），
+ * 内置的线程池在执行之前以及队列满时检查，跳过或者移除这样的任务
+ * created by dieyidezui on 2019/1/14.
+ */
+public interface Skippable {
+
+    boolean isSkippable();
+
+    /**
+     * isSkippable 为 true 的任务被线程池跳过或者移出队列时调用。
+     * ThreadPoolExecutor 在 beforeExecute 中跳过之后仍然会调用 run，因此跳过之后的 run 不应再执行或者计数
+     */
+    void onSkipped();
+}
@@ -0,0 +1,24 @@
+package com.dieyidezui.valuable.internal.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 排队中的任务可能变得可以跳过（所属的 Valuable 被取消、结果被提升）时增加计数，
+ * 队列满时只有计数变化之后才值得再遍历一次队列清理 {@link Skippable}
+ * created by dieyidezui on 2019/1/18.
+ */
+public final class Skippables {
+
+    private static final AtomicLong epoch = new AtomicLong();
+
+    private Skippables() {
+    }
+
+    public static void changed() {
+        epoch.incrementAndGet();
+    }
+
+    public static long epoch() {
+        return epoch.get();
+    }
+}
@@ -4,43 +4,116 @@ import android.support.annotation.Nullable;
 
 import com.dieyidezui.valuable.Scheduler;
 import com.dieyidezui.valuable.Valuable;
+import com.dieyidezui.valuable.ValuableTracer;
 import com.dieyidezui.valuable.exceptions.CanceledException;
+import com.dieyidezui.valuable.exceptions.OverloadException;
+import com.dieyidezui.valuable.exceptions.TimeoutException;
 import com.dieyidezui.valuable.exceptions.ValuableException;
 import com.dieyidezui.valuable.function.Consumer;
 import com.dieyidezui.valuable.internal.util.ObjectHelper;
+import com.dieyidezui.valuable.internal.util.Rejectable;
+import com.dieyidezui.valuable.internal.util.Skippable;
+import com.dieyidezui.valuable.internal.util.Skippables;
+import com.dieyidezui.valuable.metrics.Histogram;
+import com.dieyidezui.valuable.shedulers.Priority;
 import com.dieyidezui.valuable.shedulers.Schedulers;
 
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
+ * 结果和回调链都保存在自身的字段中，用 FieldUpdater 更新：
+ * result 为 null 表示未完成，stack 为 Completion 组成的栈，完成后被替换为 DONE。
+ * 只有在 get() 真正需要阻塞时才会创建 latch。
  * created by dieyidezui on 2018/8/2.
  */
 @SuppressWarnings({"unchecked", "NullableProblems"})
 public class BaseValuable<T> extends Valuable<T> {
 
-    private final AtomicReference<Result<T>> ref;
-    private final CountDownLatch latch;
-    private final Consumers consumers;
+    /**
+     * 结果为 null 时的占位
+     */
+    static final Object NIL = new Object();
+
+    static final Object CANCELED = new Object();
+
+    static final Completion DONE = new Completion() {
+        @Override
+        void run(BaseValuable<?> source, Object result, boolean onScheduler) {
+            throw new AssertionError();
+        }
+    };
+
+    private static final AtomicReferenceFieldUpdater<BaseValuable, Object> RESULT =
+            AtomicReferenceFieldUpdater.newUpdater(BaseValuable.class, Object.class, "result");
+
+    private static final AtomicReferenceFieldUpdater<BaseValuable, Completion> STACK =
+            AtomicReferenceFieldUpdater.newUpdater(BaseValuable.class, Completion.class, "stack");
+
+    private static final AtomicReferenceFieldUpdater<BaseValuable, BaseValuable.Task> PENDING =
+            AtomicReferenceFieldUpdater.newUpdater(BaseValuable.class, BaseValuable.Task.class, "pending");
+
+    private static final AtomicReferenceFieldUpdater<BaseValuable, Waiter> TIMED_WAITER =
+            AtomicReferenceFieldUpdater.newUpdater(BaseValuable.class, Waiter.class, "timedWaiter");
+
+    private static final AtomicIntegerFieldUpdater<BaseValuable.Task> CLAIMED =
+            AtomicIntegerFieldUpdater.newUpdater(BaseValuable.Task.class, "claimed");
+
+    private static final AtomicLong promotedInline = new AtomicLong();
+    private static final AtomicLong promotedQueued = new AtomicLong();
+    private static final Histogram promotionSaved = new Histogram();
+
+    @Nullable
+    private static volatile ValuableTracer tracer;
+
+    private final Scheduler origin;
+    /**
+     * 创建时安装了 tracer 才不为 null
+     */
+    @Nullable
+    final Trace trace;
+    private volatile Object result;
+    private volatile Completion stack;
+    /**
+     * 在低优先级 Scheduler 上排队、尚未开始执行的 Task，有人等待结果时提升
+     */
+    @Nullable
+    private volatile Task pending;
+    /**
+     * 所有带超时的 get 共用，第一次带超时的 get 时创建，超时返回也不会在栈上留下新的 waiter
+     */
+    @Nullable
+    private volatile Waiter timedWaiter;
 
     public BaseValuable(@Nullable Callable<T> callable, Scheduler scheduler, @Nullable Valuable<?> upStream) {
-        ref = new AtomicReference<>(Result.holder());
-        latch = new CountDownLatch(1);
-        consumers = new Consumers(upStreamToReal(upStream, scheduler)); // 'this' is useless, just avoid warning
+        this(callable, scheduler, upStream, false);
+    }
+
+    /**
+     * @param interruptible 为 true 时，callable 执行期间被取消会中断执行它的线程
+     */
+    public BaseValuable(@Nullable Callable<T> callable, Scheduler scheduler, @Nullable Valuable<?> upStream,
+                        boolean interruptible) {
+        ValuableTracer t = tracer;
+        trace = t == null ? null : new Trace(t);
+        origin = upStreamToReal(upStream, scheduler);
         if (callable != null) {
-            scheduler.schedule(() -> {
-                T t = null;
-                Exception e = null;
-                try {
-                    t = callable.call();
-                } catch (Exception ex) {
-                    e = ex;
-                }
-                onComplete(t, e, true);
-            });
+            if (trace != null) {
+                trace.scheduled = trace.created;
+            }
+            Task task = new Task(callable, interruptible, Schedulers.priorityOf(scheduler) == Priority.LOW);
+            if (task.promotable) {
+                pending = task;
+            }
+            try {
+                scheduler.schedule(task);
+            } catch (OverloadException e) {
+                onComplete(null, e, false);
+            }
         }
     }
 
@@ -54,77 +127,162 @@ public class BaseValuable<T> extends Valuable<T> {
         return scheduler;
     }
 
+    public static void setTracer(@Nullable ValuableTracer tracer) {
+        BaseValuable.tracer = tracer;
+    }
+
+    /**
+     * @param inline true 为在等待的线程直接执行的次数，false 为以高优先级重新提交的次数
+     */
+    public static long promotions(boolean inline) {
+        return inline ? promotedInline.get() : promotedQueued.get();
+    }
+
+    /**
+     * 提升后开始执行的时间到原来排队的任务轮到的时间
+     */
+    public static Histogram.Snapshot promotionSaved() {
+        return promotionSaved.snapshot();
+    }
+
+    /**
+     * 供内部的操作符注册回调，和 {@link #complete(Consumer, Consumer, Scheduler)} 相同，
+     * 但不提升排队中的低优先级任务：只有用户的回调和 get() 才算真正的等待
+     */
+    public static <T> void observe(Valuable<T> v, Consumer<? super T> consumer, Consumer<? super Exception> handler,
+                                   Scheduler scheduler) {
+        if (v instanceof BaseValuable) {
+            ((BaseValuable<T>) v).complete(consumer, scheduler, handler, scheduler);
+        } else {
+            v.complete(consumer, handler, scheduler);
+        }
+    }
 
     @Override
     public Valuable<T> success(Consumer<? super T> consumer, Scheduler scheduler) {
+        promote(false);
         return complete(
-                ObjectHelper.requireNonNull(consumer), ObjectHelper.requireNonNull(scheduler),
+                Trace.wrap(trace, ObjectHelper.requireNonNull(consumer)), ObjectHelper.requireNonNull(scheduler),
                 null, null);
     }
 
     @Override
     public Valuable<T> complete(Consumer<? super T> consumer, Consumer<? super Exception> handler, Scheduler scheduler) {
+        promote(false);
         return complete(
-                ObjectHelper.requireNonNull(consumer), ObjectHelper.requireNonNull(scheduler),
-                ObjectHelper.requireNonNull(handler), scheduler);
+                Trace.wrap(trace, ObjectHelper.requireNonNull(consumer)), ObjectHelper.requireNonNull(scheduler),
+                Trace.wrap(trace, ObjectHelper.requireNonNull(handler)), scheduler);
     }
 
     @Override
     public Valuable<T> catchError(Consumer<? super Exception> consumer, Scheduler scheduler) {
+        promote(false);
         return complete(
                 null, null,
-                ObjectHelper.requireNonNull(consumer), ObjectHelper.requireNonNull(scheduler));
+                Trace.wrap(trace, ObjectHelper.requireNonNull(consumer)), ObjectHelper.requireNonNull(scheduler));
+    }
+
+    @Override
+    public Valuable<T> name(String name) {
+        ObjectHelper.requireNonNull(name);
+        if (trace != null) {
+            trace.name(name);
+        }
+        return this;
     }
 
     @Override
     public T get() throws ValuableException {
-        boolean inter = false;
-        while (true) {
+        Object r = result;
+        if (r == null) {
+            promote(true);
+            r = result;
+        }
+        if (r == null) {
+            Waiter waiter = new Waiter();
+            if (push(waiter)) {
+                waiter.await();
+            }
+            r = result;
+        }
+        return report(r);
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws ValuableException {
+        Object r = result;
+        if (r == null) {
+            // 直接执行可能超过 timeout，只提升优先级
+            promote(false);
+            boolean done;
             try {
-                latch.await();
-                break;
+                done = timedWaiter().latch.await(timeout, unit);
             } catch (InterruptedException e) {
-                inter = true;
+                Thread.currentThread().interrupt();
+                throw new ValuableException(e);
+            }
+            if (!done && result == null) {
+                throw new TimeoutException("Timeout");
             }
+            r = result;
         }
-        if (inter) {
-            Thread.currentThread().interrupt();
+        return report(r);
+    }
+
+    private Waiter timedWaiter() {
+        Waiter w = timedWaiter;
+        if (w != null) {
+            return w;
         }
-        Result<T> result = ref.get();
-        if (result == null) {
-            throw new CanceledException("Canceled");
+        w = new Waiter();
+        if (!TIMED_WAITER.compareAndSet(this, null, w)) {
+            return timedWaiter;
         }
-        if (!result.success()) {
-            if (result.e instanceof ValuableException) {
-                throw (ValuableException) result.e;
+        if (!push(w)) {
+            // 已经完成，其他线程可能已经拿到了 w
+            w.latch.countDown();
+        }
+        return w;
+    }
+
+    private static <T> T report(Object r) {
+        if (!isSuccess(r)) {
+            Exception e = errorOf(r);
+            if (e instanceof ValuableException) {
+                throw (ValuableException) e;
             }
-            throw new ValuableException(result.e);
+            throw new ValuableException(e);
         }
-        return result.t;
+        return valueOf(r);
     }
 
     @Override
     public T getOrDefault(T defVal) {
-        Result<T> result = ref.get();
-        if (result != null && result.success()) {
-            return result.t;
+        Object r = result;
+        if (r == null || !isSuccess(r)) {
+            return defVal;
         }
-        return defVal;
+        return valueOf(r);
     }
 
     @Override
     public void cancel() {
-        if (ref.compareAndSet(Result.holder(), null)) {
-            latch.countDown();
-            consumers.onCall(null, false);
+        if (tryComplete(CANCELED)) {
+            // 排队中的 Task 可以跳过了
+            Skippables.changed();
+            RuntimeException error = postComplete(false);
+            afterComplete(false);
+            if (error != null) {
+                throw error;
+            }
         } else {
-            ref.set(null);
+            result = CANCELED;
         }
     }
 
     @Override
     public boolean isCanceled() {
-        return ref.get() == null;
+        return result == CANCELED;
     }
 
 
@@ -140,136 +298,582 @@ public class BaseValuable<T> extends Valuable<T> {
 
     @Override
     public Scheduler scheduler() {
-        return consumers.origin;
+        return origin;
     }
 
 
     Valuable<T> complete(@Nullable Consumer<? super T> consumer, @Nullable Scheduler consumerScheduler,
                          @Nullable Consumer<? super Exception> handler, @Nullable Scheduler handlerScheduler) {
-        consumers.register(consumer, consumerScheduler, handler, handlerScheduler, ref);
+        ResultConsumer c = new ResultConsumer(consumer, consumerScheduler, handler, handlerScheduler);
+        if (!push(c)) {
+            c.run(this, result, false);
+        }
         return this;
     }
 
+    /**
+     * 注册内部使用的回调，完成时在完成的线程直接执行
+     */
+    final void whenComplete(Completion c) {
+        if (!push(c)) {
+            c.run(this, result, false);
+        }
+    }
+
+    /**
+     * 有人开始等待结果：还在低优先级队列中的 Task，inline 时在当前线程直接执行，否则以高优先级重新提交，
+     * 两份中先开始的一份执行，另一份被跳过
+     */
+    void promote(boolean inline) {
+        Task t = pending;
+        if (t == null || result != null || !PENDING.compareAndSet(this, t, null)) {
+            return;
+        }
+        // 两份 Task 中总有一份会变得可以跳过
+        Skippables.changed();
+        if (inline) {
+            if (CLAIMED.compareAndSet(t, 0, 1)) {
+                promotedInline.incrementAndGet();
+                t.promotedStart = System.nanoTime();
+                // 不在 origin 上，回调需要派发到各自的 Scheduler
+                t.execute(false);
+            }
+            return;
+        }
+        promotedQueued.incrementAndGet();
+        try {
+            Schedulers.withPriority(origin, Priority.HIGH).schedule(new Promoted(t));
+        } catch (OverloadException ignored) {
+            // 原来的 Task 还在排队
+        }
+    }
+
     void onComplete(@Nullable T t, @Nullable Exception e, boolean onScheduler) {
-        Result<T> r = new Result<>(t, e);
-        if (ref.compareAndSet(Result.holder(), r)) {
-            latch.countDown();
-            consumers.onCall(r, onScheduler);
+        if (tryComplete(encode(t, e))) {
+            RuntimeException error = postComplete(onScheduler);
+            afterComplete(onScheduler);
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+
+    /**
+     * 只设置结果，成功后调用方需要依次调用 {@link #postComplete(boolean)} 和 {@link #afterComplete(boolean)}，
+     * 最后再抛出回调的异常
+     *
+     * @param r 编码后的结果，见 {@link #encode(Object, Exception)}
+     * @return 是否由本次调用完成
+     */
+    final boolean tryComplete(Object r) {
+        if (RESULT.compareAndSet(this, null, r)) {
+            if (trace != null) {
+                trace.complete(r == CANCELED);
+            }
+            return true;
         }
+        return false;
+    }
+
+    /**
+     * 通过 onComplete / cancel 完成并回调之后调用
+     */
+    void afterComplete(boolean onScheduler) {
+    }
+
+    /**
+     * 编码后的结果，未完成时为 null
+     */
+    final Object state() {
+        return result;
+    }
+
+    static Object encode(@Nullable Object t, @Nullable Exception e) {
+        return e != null ? new Failure(e) : t == null ? NIL : t;
+    }
+
+    static boolean isSuccess(Object r) {
+        return r != CANCELED && !(r instanceof Failure);
+    }
+
+    static Exception errorOf(Object r) {
+        return r == CANCELED ? new CanceledException("Canceled") : ((Failure) r).e;
+    }
+
+    static <T> T valueOf(Object r) {
+        return r == NIL ? null : (T) r;
     }
 
     /**
-     * T 可能为 null，所以是否为成功用 e 是否为空表示
+     * @return false 如果已经完成，此时调用方需要自己执行 c
      */
-    static class Result<T> {
-        static final Result<?> HOLDER = new Result<>(null, new Exception("Placeholder!"));
+    private boolean push(Completion c) {
+        Completion h;
+        do {
+            h = stack;
+            if (h == DONE) {
+                return false;
+            }
+            c.next = h;
+        } while (!STACK.compareAndSet(this, h, c));
+        return true;
+    }
 
-        static <T> Result<T> holder() {
-            return (Result<T>) HOLDER;
+    /**
+     * 唤醒所有 waiter，再按注册顺序回调，需要派发的回调按 Scheduler 合并为一个任务
+     *
+     * @return 回调抛出的第一个异常，由调用方在完成后续工作之后抛出
+     */
+    final RuntimeException postComplete(boolean onScheduler) {
+        Completion h = STACK.getAndSet(this, DONE);
+        Completion ordered = null;
+        while (h != null) {
+            Completion next = h.next;
+            if (h instanceof Waiter) {
+                ((Waiter) h).latch.countDown();
+            } else if (h instanceof Interrupter) {
+                // 先于其他回调中断，尽早释放线程
+                h.run(this, result, onScheduler);
+            } else {
+                h.next = ordered;
+                ordered = h;
+            }
+            h = next;
         }
+        Dispatch head = null;
+        Dispatch tail = null;
+        RuntimeException error = null;
+        try {
+            while (ordered != null) {
+                Completion next = ordered.next;
+                ordered.next = null;
+                // 一个回调的异常不影响后面的回调，只返回第一个异常。回调过程中被取消的话，之后的回调都视为取消
+                try {
+                    if (ordered instanceof ResultConsumer) {
+                        Dispatch d = ((ResultConsumer) ordered).prepare(this, result, onScheduler);
+                        if (d != null) {
+                            if (tail == null) {
+                                head = d;
+                            } else {
+                                tail.next = d;
+                            }
+                            tail = d;
+                        }
+                    } else {
+                        ordered.run(this, result, onScheduler);
+                    }
+                } catch (RuntimeException e) {
+                    if (error == null) {
+                        error = e;
+                    }
+                }
+                ordered = next;
+            }
+        } finally {
+            if (head != null) {
+                if (head.next == null) {
+                    head.dispatch();
+                } else {
+                    Batch.dispatchAll(head);
+                }
+            }
+        }
+        return error;
+    }
 
-        final T t;
+    /**
+     * T 可能为 null，因此异常需要包装一层以区分
+     */
+    static final class Failure {
         final Exception e;
 
-        Result(@Nullable T t, @Nullable Exception e) {
-            this.t = t;
+        Failure(Exception e) {
             this.e = e;
         }
+    }
+
+    abstract static class Completion {
+        Completion next;
+
+        abstract void run(BaseValuable<?> source, Object result, boolean onScheduler);
+    }
+
+    static final class Waiter extends Completion {
+
+        final CountDownLatch latch = new CountDownLatch(1);
 
-        boolean success() {
-            return e == null;
+        @Override
+        void run(BaseValuable<?> source, Object result, boolean onScheduler) {
+            latch.countDown();
         }
 
-        Object object() {
-            return e == null ? t : e;
+        void await() {
+            boolean inter = false;
+            while (true) {
+                try {
+                    latch.await();
+                    break;
+                } catch (InterruptedException e) {
+                    inter = true;
+                }
+            }
+            if (inter) {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 
-    static class ResultConsumer {
+    /**
+     * 可中断的 callable 执行期间注册在栈上，取消时中断 runner。
+     * 和 FutureTask 一样用状态保证中断只发生在 callable 执行期间：执行结束时如果中断正在进行，
+     * 等待其完成后清除中断标记，中断不会泄漏到该线程之后执行的任务。
+     */
+    static final class Interrupter extends Completion {
+
+        private static final int RUNNING = 0;
+        private static final int INTERRUPTING = 1;
+        private static final int INTERRUPTED = 2;
+        private static final int FINISHED = 3;
+
+        private static final AtomicIntegerFieldUpdater<Interrupter> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Interrupter.class, "state");
+
+        private final Thread runner = Thread.currentThread();
+        private volatile int state;
+
+        @Override
+        void run(BaseValuable<?> source, Object result, boolean onScheduler) {
+            if (result == CANCELED && STATE.compareAndSet(this, RUNNING, INTERRUPTING)) {
+                try {
+                    runner.interrupt();
+                } finally {
+                    state = INTERRUPTED;
+                }
+            }
+        }
+
+        /**
+         * 在 runner 上，callable 返回后调用
+         */
+        void finish() {
+            if (!STATE.compareAndSet(this, RUNNING, FINISHED)) {
+                while (state == INTERRUPTING) {
+                    Thread.yield();
+                }
+                Thread.interrupted();
+            }
+        }
+    }
 
-        static final ResultConsumer DEFAULT = new ResultConsumer(false, null, null);
+    static final class ResultConsumer extends Completion {
 
-        private final boolean success;
         private final Consumer consumer;
         private final Scheduler consumerScheduler;
+        private final Consumer handler;
+        private final Scheduler handlerScheduler;
 
-        ResultConsumer(boolean success, @Nullable Consumer consumer, @Nullable Scheduler consumerScheduler) {
-            this.success = success;
+        ResultConsumer(@Nullable Consumer consumer, @Nullable Scheduler consumerScheduler,
+                       @Nullable Consumer handler, @Nullable Scheduler handlerScheduler) {
             this.consumer = consumer;
             this.consumerScheduler = consumerScheduler;
+            this.handler = handler;
+            this.handlerScheduler = handlerScheduler;
+        }
+
+        @Override
+        void run(BaseValuable<?> source, Object result, boolean onScheduler) {
+            Dispatch d = prepare(source, result, onScheduler);
+            if (d != null) {
+                d.dispatch();
+            }
         }
 
-        <T> void enqueueOrCall(ConcurrentLinkedQueue<ResultConsumer> queue, AtomicInteger state, Scheduler scheduler, AtomicReference<Result<T>> ref) {
-            int old = state.getAndIncrement();
-            if (old > 0) {
-                queue.offer(this);
+        /**
+         * 可以在当前线程执行的回调直接执行，需要派发的回调返回对应的 Dispatch，由调用方派发
+         */
+        @Nullable
+        Dispatch prepare(BaseValuable<?> source, Object result, boolean onScheduler) {
+            if (isSuccess(result)) {
+                return call(consumer, consumerScheduler, valueOf(result), source.origin, onScheduler);
             } else {
-                state.decrementAndGet();
-                call(ref.get(), scheduler, false);
+                return call(handler, handlerScheduler, errorOf(result), source.origin, onScheduler);
             }
         }
 
-        void call(@Nullable Result<?> result, Scheduler origin, boolean onScheduler) {
-            if (consumer == null || consumerScheduler == null) return;
-            if (result == null) {
-                result = new Result<>(null, new CanceledException("Canceled"));
+        @Nullable
+        private static Dispatch call(@Nullable Consumer consumer, @Nullable Scheduler consumerScheduler,
+                                     @Nullable Object o, Scheduler origin, boolean onScheduler) {
+            if (consumer == null || consumerScheduler == null) return null;
+            if (onScheduler) {
+                if (!consumerScheduler.equals(Schedulers.upstream()) && !consumerScheduler.equals(origin)) {
+                    return new Dispatch(consumerScheduler, consumer, o);
+                } else if (origin == Schedulers.trampoline()) {
+                    // 交给 trampoline 排队，避免长链递归
+                    return new Dispatch(origin, consumer, o);
+                } else {
+                    consumer.accept(o);
+                    return null;
+                }
+            } else {
+                if (consumerScheduler == Schedulers.upstream()) {
+                    return new Dispatch(origin, consumer, o);
+                } else {
+                    return new Dispatch(consumerScheduler, consumer, o);
+                }
             }
-            final Result<?> r = result;
-            if (result.success() == success) {
-                if (onScheduler) {
-                    if (!consumerScheduler.equals(Schedulers.upstream()) && !consumerScheduler.equals(origin)) {
-                        consumerScheduler.schedule(() -> consumer.accept(r.object()));
+        }
+    }
+
+    static final class Dispatch implements Runnable, Rejectable {
+        final Scheduler scheduler;
+        private final Consumer consumer;
+        private final Object o;
+        /**
+         * postComplete 中按注册顺序串联，合并后串联同一个 Batch 中的回调
+         */
+        @Nullable
+        Dispatch next;
+
+        Dispatch(Scheduler scheduler, Consumer consumer, @Nullable Object o) {
+            this.scheduler = scheduler;
+            this.consumer = consumer;
+            this.o = o;
+        }
+
+        void dispatch() {
+            BaseValuable.dispatch(scheduler, this);
+        }
+
+        @Override
+        public void run() {
+            consumer.accept(o);
+        }
+
+        @Override
+        public void reject(Exception e) {
+            run();
+        }
+    }
+
+    /**
+     * 派发到同一个 Scheduler 的多个回调合并为一个任务，按注册顺序执行。
+     * 一个回调的异常不影响后面的回调，全部执行完之后抛出第一个异常
+     */
+    static final class Batch implements Runnable, Rejectable {
+        private final Scheduler scheduler;
+        private final Dispatch head;
+        private Dispatch tail;
+        @Nullable
+        private Batch next;
+
+        Batch(Dispatch d) {
+            scheduler = d.scheduler;
+            head = tail = d;
+        }
+
+        /**
+         * 按 Scheduler 分组，同一个 Scheduler 的不同优先级视为不同的分组。分组数通常很少，因此线性查找
+         */
+        static void dispatchAll(Dispatch list) {
+            Batch first = null;
+            Batch last = null;
+            for (Dispatch d = list; d != null; ) {
+                Dispatch next = d.next;
+                d.next = null;
+                Batch b = first;
+                while (b != null && b.scheduler != d.scheduler) {
+                    b = b.next;
+                }
+                if (b != null) {
+                    b.tail.next = d;
+                    b.tail = d;
+                } else {
+                    b = new Batch(d);
+                    if (last == null) {
+                        first = b;
                     } else {
-                        consumer.accept(r.object());
+                        last.next = b;
                     }
+                    last = b;
+                }
+                d = next;
+            }
+            for (Batch b = first; b != null; ) {
+                Batch next = b.next;
+                b.next = null;
+                if (b.head == b.tail) {
+                    b.head.dispatch();
                 } else {
-                    if (consumerScheduler == Schedulers.upstream()) {
-                        origin.schedule(() -> consumer.accept(r.object()));
-                    } else {
-                        consumerScheduler.schedule(() -> consumer.accept(r.object()));
+                    BaseValuable.dispatch(b.scheduler, b);
+                }
+                b = next;
+            }
+        }
+
+        @Override
+        public void run() {
+            RuntimeException error = null;
+            for (Dispatch d = head; d != null; d = d.next) {
+                try {
+                    d.run();
+                } catch (RuntimeException e) {
+                    if (error == null) {
+                        error = e;
                     }
                 }
             }
+            if (error != null) {
+                throw error;
+            }
         }
-    }
 
-    class Consumers {
+        @Override
+        public void reject(Exception e) {
+            run();
+        }
+    }
 
-        final Scheduler origin;
-        final AtomicInteger state = new AtomicInteger(1);
-        final ConcurrentLinkedQueue<ResultConsumer> queue = new ConcurrentLinkedQueue<>();
+    /**
+     * 当前线程已经属于 scheduler 时直接执行，省去一次线程切换。
+     * 回调不会被丢弃，线程池过载时在当前线程执行
+     */
+    private static void dispatch(Scheduler scheduler, Runnable r) {
+        if (Schedulers.runInline(scheduler, r)) {
+            return;
+        }
+        try {
+            scheduler.schedule(r);
+        } catch (OverloadException e) {
+            r.run();
+        }
+    }
 
+    /**
+     * 执行 callable 的任务，被线程池丢弃时以异常完成，排队期间被取消则不再执行
+     */
+    final class Task implements Runnable, Rejectable, Skippable {
+        private final Callable<T> callable;
+        private final boolean interruptible;
+        /**
+         * 可以被提升的 Task 可能有两份在执行，通过 claimed 保证只执行一次：
+         * 0 为未开始，1 为某一份已经开始，2 为落后的一份已经记录过跳过
+         */
+        final boolean promotable;
+        volatile int claimed;
+        /**
+         * 提升后开始执行的时间，未被提升时为 0
+         */
+        volatile long promotedStart;
+
+        Task(Callable<T> callable) {
+            this(callable, false, false);
+        }
 
-        Consumers(Scheduler origin) {
-            this.origin = origin;
-            queue.offer(ResultConsumer.DEFAULT);
+        Task(Callable<T> callable, boolean interruptible, boolean promotable) {
+            this.callable = callable;
+            this.interruptible = interruptible;
+            this.promotable = promotable;
         }
 
+        @Override
+        public void run() {
+            if (promotable) {
+                if (!CLAIMED.compareAndSet(this, 0, 1)) {
+                    onSkipped();
+                    return;
+                }
+                PENDING.compareAndSet(BaseValuable.this, this, null);
+            }
+            execute(true);
+        }
 
-        void onCall(@Nullable Result<T> r, boolean onScheduler) {
-            ResultConsumer s;
-            int count;
-            do {
-                count = 0;
-                while ((s = queue.poll()) != null) {
-                    if (isCanceled()) {
-                        r = null;
-                    }
-                    s.call(r, origin, onScheduler);
-                    count--;
+        void execute(boolean onScheduler) {
+            if (state() != null) {
+                return;
+            }
+            Trace tr = trace;
+            if (tr != null) {
+                tr.started = System.nanoTime();
+            }
+            Interrupter interrupter = null;
+            if (interruptible) {
+                interrupter = new Interrupter();
+                if (!push(interrupter)) {
+                    // 执行之前已经被取消
+                    return;
+                }
+            }
+            T t = null;
+            Exception e = null;
+            try {
+                t = callable.call();
+            } catch (Exception ex) {
+                e = ex;
+            } finally {
+                if (interrupter != null) {
+                    interrupter.finish();
                 }
+            }
+            if (tr != null) {
+                tr.ran = System.nanoTime();
+            }
+            onComplete(t, e, onScheduler);
+        }
 
-            } while (state.addAndGet(count) != 0);
+        @Override
+        public void reject(Exception e) {
+            // 被提升的那一份已经在执行时，丢弃排队的这一份不影响结果
+            if (!promotable || CLAIMED.compareAndSet(this, 0, 1)) {
+                onComplete(null, e, false);
+            }
         }
 
-        void register(@Nullable Consumer<? super T> consumer, @Nullable Scheduler consumerScheduler,
-                      @Nullable Consumer<? super Exception> handler, @Nullable Scheduler handlerScheduler, AtomicReference<Result<T>> t) {
-            if (consumer != null) {
-                new ResultConsumer(true, consumer, consumerScheduler).enqueueOrCall(queue, state, origin, t);
+        @Override
+        public boolean isSkippable() {
+            return state() != null || claimed != 0;
+        }
+
+        /**
+         * 线程池跳过之后，ThreadPoolExecutor 仍然会调用 run，因此可能被调用两次，只记录一次
+         */
+        @Override
+        public void onSkipped() {
+            long start = promotedStart;
+            if (start != 0 && CLAIMED.compareAndSet(this, 1, 2)) {
+                promotionSaved.record(System.nanoTime() - start);
             }
-            if (handler != null) {
-                new ResultConsumer(false, handler, handlerScheduler).enqueueOrCall(queue, state, origin, t);
+        }
+    }
+
+    /**
+     * 以高优先级重新提交的一份 Task，被丢弃时原来的 Task 仍在排队，因此不需要处理
+     */
+    final class Promoted implements Runnable, Rejectable, Skippable {
+        private final Task task;
+
+        Promoted(Task task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            if (CLAIMED.compareAndSet(task, 0, 1)) {
+                task.promotedStart = System.nanoTime();
+                task.execute(true);
             }
         }
+
+        @Override
+        public void reject(Exception e) {
+        }
+
+        @Override
+        public boolean isSkippable() {
+            return task.isSkippable();
+        }
+
+        @Override
+        public void onSkipped() {
+        }
     }
 }
@@ -1,66 +1,100 @@
 package com.dieyidezui.valuable.internal.valuables;
 
 import com.dieyidezui.valuable.Scheduler;
-import com.dieyidezui.valuable.shedulers.Schedulers;
 import com.dieyidezui.valuable.Valuable;
+import com.dieyidezui.valuable.exceptions.OverloadException;
 import com.dieyidezui.valuable.function.Function;
 
 import java.util.List;
-import java.util.WeakHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
+ * 每个输入只注册一个 {@link Input}，结果直接写入数组，最后一个完成的输入负责调度 combiner，
+ * 输入完成时不切换线程。任一输入失败则立即失败，取消时取消所有输入。
  * created by dieyidezui on 2018/8/2.
  */
+@SuppressWarnings({"unchecked", "NullableProblems"})
 public class CombineValuable<T> extends BaseValuable<T> {
-    private Object[] objs;
-    private WeakHashMap<Valuable<?>, Valuable<?>> weakSet;
-    private AtomicInteger count = new AtomicInteger(0);
 
-    public CombineValuable(Function<Object[], ? extends T> combiner, List<Valuable<?>> valuables, Scheduler scheduler) {
+    private static final AtomicIntegerFieldUpdater<CombineValuable> REMAINING =
+            AtomicIntegerFieldUpdater.newUpdater(CombineValuable.class, "remaining");
+
+    private final Function<Object[], ? extends T> combiner;
+    /**
+     * 完成后置空
+     */
+    private Object[] values;
+    private Valuable<?>[] inputs;
+    private volatile int remaining;
+
+    public CombineValuable(Function<Object[], ? extends T> combiner, List<? extends Valuable<?>> valuables, Scheduler scheduler) {
         super(null, scheduler, null);
-        objs = new Object[valuables.size()];
-        weakSet = new WeakHashMap<>();
-        for (Valuable<?> v : valuables) {
-            weakSet.put(v, this);
+        this.combiner = combiner;
+        int n = valuables.size();
+        Valuable<?>[] in = valuables.toArray(new Valuable<?>[n]);
+        inputs = in;
+        values = new Object[n];
+        remaining = n;
+        if (n == 0) {
+            finish(values);
+            return;
+        }
+        for (int i = 0; i < n; i++) {
+            ((BaseValuable<?>) in[i]).whenComplete(new Input(this, i));
         }
-        int i = 0;
-        for (Valuable valuable : valuables) {
-            BaseValuable<?> v = (BaseValuable) valuable;
-            final int index = i++;
-            v.complete(o -> {
-                        if (isCanceled()) return;
-                        Object[] ar = objs;
-                        if (ar != null) {
-                            ar[index] = o;
-                            if (count.incrementAndGet() == ar.length) {
-                                objs = null;
-                                T t;
-                                try {
-                                    t = combiner.apply(ar);
-                                } catch (Exception e) {
-                                    notifyError(e);
-                                    return;
-                                }
-                                notifyResult(t);
-                            }
-                        }
-                    }, scheduler,
-                    e -> {
-                        objs = null;
-                        notifyError(e);
-                    }, Schedulers.upstream());
+    }
+
+    void onInput(int index, Object r) {
+        Object[] ar = values;
+        if (ar == null) return;
+        if (!isSuccess(r)) {
+            onComplete(null, errorOf(r), false);
+            return;
+        }
+        ar[index] = valueOf(r);
+        if (REMAINING.decrementAndGet(this) == 0) {
+            finish(ar);
+        }
+    }
+
+    private void finish(Object[] ar) {
+        if (isCanceled()) return;
+        try {
+            scheduler().schedule(new Task(() -> combiner.apply(ar)));
+        } catch (OverloadException e) {
+            onComplete(null, e, false);
         }
     }
 
+    @Override
+    void afterComplete(boolean onScheduler) {
+        values = null;
+        inputs = null;
+    }
+
     @Override
     public void cancel() {
+        Valuable<?>[] in = inputs;
         super.cancel();
-        for (Valuable<?> o : weakSet.keySet()) {
-            if (o != null) {
-                o.cancel();
+        if (in != null) {
+            for (Valuable<?> v : in) {
+                v.cancel();
             }
         }
-        objs = null;
+    }
+
+    static final class Input extends Completion {
+        private final CombineValuable<?> parent;
+        private final int index;
+
+        Input(CombineValuable<?> parent, int index) {
+            this.parent = parent;
+            this.index = index;
+        }
+
+        @Override
+        void run(BaseValuable<?> source, Object result, boolean onScheduler) {
+            parent.onInput(index, result);
+        }
     }
 }
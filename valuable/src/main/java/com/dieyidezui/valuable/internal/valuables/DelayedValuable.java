@@ -0,0 +1,30 @@
+package com.dieyidezui.valuable.internal.valuables;
+
+import com.dieyidezui.valuable.Cancelable;
+import com.dieyidezui.valuable.Scheduler;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * delay 之后再调度 callable，取消时一并取消定时
+ * created by dieyidezui on 2018/12/30.
+ */
+public class DelayedValuable<T> extends BaseValuable<T> {
+
+    private final Cancelable delayed;
+
+    public DelayedValuable(Callable<T> callable, long delay, TimeUnit unit, Scheduler scheduler) {
+        super(null, scheduler, null);
+        if (trace != null) {
+            trace.scheduled = trace.created + unit.toNanos(delay);
+        }
+        delayed = scheduler.schedule(new Task(callable), delay, unit);
+    }
+
+    @Override
+    public void cancel() {
+        super.cancel();
+        delayed.cancel();
+    }
+}
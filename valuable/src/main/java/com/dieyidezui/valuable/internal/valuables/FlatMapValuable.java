@@ -20,21 +20,38 @@ public class FlatMapValuable<T, R> extends BaseValuable<R> {
         super(null, scheduler, source);
         this.ref = new WeakReference<>(source);
         this.atomicRef = new AtomicReference<>(ref);
+        if (trace != null) {
+            trace.inner = true;
+        }
         ((BaseValuable<T>) source).complete(
                 t -> {
                     if (isCanceled()) return;
                     Valuable<? extends R> target;
+                    Trace tr = trace;
+                    if (tr != null) {
+                        tr.started = System.nanoTime();
+                        if (source instanceof BaseValuable && ((BaseValuable) source).trace != null) {
+                            tr.scheduled = ((BaseValuable) source).trace.completed;
+                        }
+                    }
                     try {
                         target = ObjectHelper.requireNonNull(mapper.apply(t), "flat map returns null");
                     } catch (Exception e) {
+                        if (tr != null) {
+                            tr.ran = System.nanoTime();
+                            tr.inner = false;
+                        }
                         if (atomicRef.compareAndSet(ref, null)) {
                             onComplete(null, e, true);
                         }
                         return;
                     }
+                    if (tr != null) {
+                        tr.ran = System.nanoTime();
+                    }
                     if (atomicRef.compareAndSet(ref, new WeakReference<>(target))) {
-                        target.complete(r -> onComplete(r, null, true),
-                                e -> onComplete(null, e, true));
+                        observe(target, r -> onComplete(r, null, true),
+                                e -> onComplete(null, e, true), Schedulers.upstream());
                     } else {
                         target.cancel();
                     }
@@ -46,6 +63,18 @@ public class FlatMapValuable<T, R> extends BaseValuable<R> {
                 }, Schedulers.upstream());
     }
 
+    /**
+     * 对结果的等待即是对当前等待的上游或者 mapper 返回的 Valuable 的等待
+     */
+    @Override
+    void promote(boolean inline) {
+        WeakReference<Valuable<?>> r = atomicRef.get();
+        Valuable<?> v = r == null ? null : r.get();
+        if (v instanceof BaseValuable) {
+            ((BaseValuable<?>) v).promote(inline);
+        }
+    }
+
     @Override
     public void cancel() {
         super.cancel();
@@ -5,38 +5,35 @@ import com.dieyidezui.valuable.shedulers.Schedulers;
 import com.dieyidezui.valuable.Valuable;
 import com.dieyidezui.valuable.function.Function;
 
-import java.lang.ref.WeakReference;
-
 /**
  * created by dieyidezui on 2018/8/2.
  */
-public class MapValuable<T, R> extends BaseValuable<R> {
-    private WeakReference<Valuable<T>> ref;
+public class MapValuable<T, R> extends StageValuable<T, R> {
+    private final Function<? super T, ? extends R> mapper;
 
     public MapValuable(Valuable<T> source, Function<? super T, ? extends R> mapper, Scheduler scheduler) {
-        super(null, scheduler, source);
-        this.ref = new WeakReference<>(source);
-        ((BaseValuable<T>) source).complete(
-                t -> {
-                    if (isCanceled()) return;
-                    R r;
-                    try {
-                        r = mapper.apply(t);
-                    } catch (Exception ex) {
-                        onComplete(null, ex, true);
-                        return;
-                    }
-                    onComplete(r, null, true);
-                }, scheduler,
-                e -> onComplete(null, e, true), Schedulers.upstream());
+        super(source, scheduler);
+        this.mapper = mapper;
+        subscribe();
     }
 
     @Override
-    public void cancel() {
-        super.cancel();
-        Valuable<T> s = ref.get();
-        if (s != null) {
-            s.cancel();
+    void register(BaseValuable<T> source) {
+        source.complete(
+                t -> drive(encode(t, null)), stageScheduler,
+                e -> drive(encode(null, e)), Schedulers.upstream());
+    }
+
+    @Override
+    Object apply(Object r) {
+        if (!isSuccess(r)) {
+            return encode(null, errorOf(r));
+        }
+        if (isCanceled()) return null;
+        try {
+            return encode(mapper.apply(valueOf(r)), null);
+        } catch (Exception ex) {
+            return encode(null, ex);
         }
     }
 }
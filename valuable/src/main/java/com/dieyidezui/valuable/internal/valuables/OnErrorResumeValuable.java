@@ -5,40 +5,36 @@ import com.dieyidezui.valuable.shedulers.Schedulers;
 import com.dieyidezui.valuable.Valuable;
 import com.dieyidezui.valuable.function.Function;
 
-import java.lang.ref.WeakReference;
-
 /**
  * created by dieyidezui on 2018/8/2.
  */
-public class OnErrorResumeValuable<T> extends BaseValuable<T> {
+public class OnErrorResumeValuable<T> extends StageValuable<T, T> {
 
-    private WeakReference<Valuable<T>> ref;
+    private final Function<? super Exception, ? extends T> resumer;
 
     public OnErrorResumeValuable(Valuable<T> source, Function<? super Exception, ? extends T> resumer, Scheduler scheduler) {
-        super(null, scheduler, source);
-        ref = new WeakReference<>(source);
-        ((BaseValuable<T>) source).complete(t -> {
-                    onComplete(t, null, true);
-                }, Schedulers.upstream(),
-                e -> {
-                    if (isCanceled()) return;
-                    T t;
-                    try {
-                        t = resumer.apply(e);
-                    } catch (Exception ex) {
-                        onComplete(null, ex, true);
-                        return;
-                    }
-                    onComplete(t, null, true);
-                }, scheduler);
+        super(source, scheduler);
+        this.resumer = resumer;
+        subscribe();
     }
 
     @Override
-    public void cancel() {
-        super.cancel();
-        Valuable<T> v = ref.get();
-        if (v != null) {
-            v.cancel();
+    void register(BaseValuable<T> source) {
+        source.complete(
+                t -> drive(encode(t, null)), Schedulers.upstream(),
+                e -> drive(encode(null, e)), stageScheduler);
+    }
+
+    @Override
+    Object apply(Object r) {
+        if (isSuccess(r)) {
+            return r;
+        }
+        if (isCanceled()) return null;
+        try {
+            return encode(resumer.apply(errorOf(r)), null);
+        } catch (Exception ex) {
+            return encode(null, ex);
         }
     }
 }
@@ -0,0 +1,183 @@
+package com.dieyidezui.valuable.internal.valuables;
+
+import com.dieyidezui.valuable.Scheduler;
+import com.dieyidezui.valuable.Valuable;
+import com.dieyidezui.valuable.function.Function;
+import com.dieyidezui.valuable.internal.util.ObjectHelper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 从 source 中按需取出元素并调用 mapper，同时进行中的 Valuable 不超过 maxConcurrency 个，
+ * 每完成一个再取下一个，结果按输入的顺序组成 List。任一失败则立即失败并取消进行中的 Valuable。
+ * 取元素和调用 mapper 由 wip 串行化，在触发的线程中循环执行，同步完成的 Valuable 不会导致递归。
+ * created by dieyidezui on 2019/1/13.
+ */
+@SuppressWarnings({"unchecked", "NullableProblems"})
+public class ParallelMapValuable<T, R> extends BaseValuable<List<R>> {
+
+    private static final AtomicIntegerFieldUpdater<ParallelMapValuable> WIP =
+            AtomicIntegerFieldUpdater.newUpdater(ParallelMapValuable.class, "wip");
+
+    /**
+     * 只在 drain 中访问
+     */
+    private final Iterator<? extends T> source;
+    private final Function<? super T, ? extends Valuable<? extends R>> mapper;
+    /**
+     * 进行中的 Valuable，按槽位存放，完成后置空
+     */
+    private final AtomicReferenceArray<Valuable<?>> running;
+
+    /**
+     * 以下由 this 的锁保护
+     */
+    private final ArrayList<R> values;
+    private final int[] free;
+    private int freeCount;
+    private int active;
+    private boolean exhausted;
+
+    private volatile int wip;
+
+    public ParallelMapValuable(Iterable<? extends T> source, Function<? super T, ? extends Valuable<? extends R>> mapper,
+                               int maxConcurrency, Scheduler scheduler) {
+        super(null, scheduler, null);
+        this.source = ObjectHelper.requireNonNull(source.iterator(), "iterator is null");
+        this.mapper = mapper;
+        running = new AtomicReferenceArray<>(maxConcurrency);
+        values = source instanceof Collection ? new ArrayList<>(((Collection<?>) source).size()) : new ArrayList<>();
+        free = new int[maxConcurrency];
+        for (int i = 0; i < maxConcurrency; i++) {
+            free[i] = maxConcurrency - 1 - i;
+        }
+        freeCount = maxConcurrency;
+        drain();
+    }
+
+    private void drain() {
+        if (WIP.getAndIncrement(this) != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            for (; ; ) {
+                if (state() != null) {
+                    return;
+                }
+                int slot;
+                int index;
+                synchronized (this) {
+                    if (exhausted || freeCount == 0) {
+                        break;
+                    }
+                    // 在同一个锁内取出槽位，onInner 可能同时归还其他槽位
+                    slot = free[--freeCount];
+                }
+                Valuable<? extends R> v;
+                try {
+                    if (!source.hasNext()) {
+                        synchronized (this) {
+                            exhausted = true;
+                            free[freeCount++] = slot;
+                        }
+                        break;
+                    }
+                    v = ObjectHelper.requireNonNull(mapper.apply(source.next()), "mapper returns null");
+                } catch (Exception e) {
+                    synchronized (this) {
+                        free[freeCount++] = slot;
+                    }
+                    fail(e);
+                    return;
+                }
+                synchronized (this) {
+                    active++;
+                    index = values.size();
+                    values.add(null);
+                }
+                running.set(slot, v);
+                if (state() != null) {
+                    cancelQuietly(v);
+                }
+                ((BaseValuable<?>) v).whenComplete(new Inner(this, index, slot));
+            }
+            List<R> result = null;
+            synchronized (this) {
+                if (exhausted && active == 0) {
+                    result = Collections.unmodifiableList(values);
+                }
+            }
+            if (result != null) {
+                onComplete(result, null, false);
+                return;
+            }
+            missed = WIP.addAndGet(this, -missed);
+        } while (missed != 0);
+    }
+
+    void onInner(int index, int slot, Object r) {
+        if (!isSuccess(r)) {
+            fail(errorOf(r));
+            return;
+        }
+        running.set(slot, null);
+        synchronized (this) {
+            values.set(index, (R) valueOf(r));
+            free[freeCount++] = slot;
+            active--;
+        }
+        drain();
+    }
+
+    private void fail(Exception e) {
+        onComplete(null, e, false);
+        cancelRunning();
+    }
+
+    private void cancelRunning() {
+        for (int i = 0; i < running.length(); i++) {
+            Valuable<?> v = running.getAndSet(i, null);
+            if (v != null) {
+                cancelQuietly(v);
+            }
+        }
+    }
+
+    private static void cancelQuietly(Valuable<?> v) {
+        try {
+            v.cancel();
+        } catch (UnsupportedOperationException ignored) {
+            // forever
+        }
+    }
+
+    @Override
+    public void cancel() {
+        super.cancel();
+        cancelRunning();
+    }
+
+    static final class Inner extends Completion {
+        private final ParallelMapValuable<?, ?> parent;
+        private final int index;
+        private final int slot;
+
+        Inner(ParallelMapValuable<?, ?> parent, int index, int slot) {
+            this.parent = parent;
+            this.index = index;
+            this.slot = slot;
+        }
+
+        @Override
+        void run(BaseValuable<?> source, Object result, boolean onScheduler) {
+            parent.onInner(index, slot, result);
+        }
+    }
+}
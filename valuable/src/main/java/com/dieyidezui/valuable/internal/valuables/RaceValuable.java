@@ -0,0 +1,102 @@
+package com.dieyidezui.valuable.internal.valuables;
+
+import com.dieyidezui.valuable.Scheduler;
+import com.dieyidezui.valuable.Valuable;
+import com.dieyidezui.valuable.exceptions.ValuableException;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * 以第一个完成（或者第一个成功）的输入完成，随后立即取消其他输入。
+ * firstSuccess 时只有全部失败才失败，异常为最后一个失败的输入的异常。
+ * created by dieyidezui on 2019/1/10.
+ */
+@SuppressWarnings({"unchecked", "NullableProblems"})
+public class RaceValuable<T> extends BaseValuable<T> {
+
+    private static final AtomicIntegerFieldUpdater<RaceValuable> REMAINING =
+            AtomicIntegerFieldUpdater.newUpdater(RaceValuable.class, "remaining");
+
+    private final boolean firstSuccess;
+    /**
+     * 完成后置空
+     */
+    private Valuable<?>[] inputs;
+    private volatile int remaining;
+
+    public RaceValuable(List<? extends Valuable<? extends T>> valuables, boolean firstSuccess, Scheduler scheduler) {
+        super(null, scheduler, null);
+        this.firstSuccess = firstSuccess;
+        int n = valuables.size();
+        Valuable<?>[] in = valuables.toArray(new Valuable<?>[n]);
+        inputs = in;
+        remaining = n;
+        if (n == 0) {
+            onComplete(null, new ValuableException("No input"), false);
+            return;
+        }
+        for (int i = 0; i < n; i++) {
+            ((BaseValuable<?>) in[i]).whenComplete(new Input(this, i));
+        }
+    }
+
+    void onInput(int index, Object r) {
+        if (firstSuccess && !isSuccess(r) && REMAINING.decrementAndGet(this) > 0) {
+            return;
+        }
+        Valuable<?>[] in = inputs;
+        if (in == null || !tryComplete(r)) {
+            return;
+        }
+        RuntimeException error = postComplete(false);
+        afterComplete(false);
+        for (int i = 0; i < in.length; i++) {
+            if (i != index) {
+                cancelQuietly(in[i]);
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    @Override
+    void afterComplete(boolean onScheduler) {
+        inputs = null;
+    }
+
+    @Override
+    public void cancel() {
+        Valuable<?>[] in = inputs;
+        super.cancel();
+        if (in != null) {
+            for (Valuable<?> v : in) {
+                cancelQuietly(v);
+            }
+        }
+    }
+
+    private static void cancelQuietly(Valuable<?> v) {
+        try {
+            v.cancel();
+        } catch (UnsupportedOperationException ignored) {
+            // forever
+        }
+    }
+
+    static final class Input extends Completion {
+        private final RaceValuable<?> parent;
+        private final int index;
+
+        Input(RaceValuable<?> parent, int index) {
+            this.parent = parent;
+            this.index = index;
+        }
+
+        @Override
+        void run(BaseValuable<?> source, Object result, boolean onScheduler) {
+            parent.onInput(index, result);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.dieyidezui.valuable.internal.valuables;
+
+import com.dieyidezui.valuable.Backoff;
+import com.dieyidezui.valuable.Cancelable;
+import com.dieyidezui.valuable.Scheduler;
+import com.dieyidezui.valuable.Valuable;
+import com.dieyidezui.valuable.function.Supplier;
+import com.dieyidezui.valuable.internal.util.ObjectHelper;
+import com.dieyidezui.valuable.shedulers.Schedulers;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每次从 source 获取一个新的 Valuable，失败时按 Backoff 在定时器上等待后重试，等待期间不占用线程。
+ * 取消时取消当前的 Valuable 或者等待中的定时。
+ * 各次尝试在各自的线程完成，不一定在 scheduler() 上，因此完成时总是把回调派发到各自的 Scheduler。
+ * created by dieyidezui on 2019/1/2.
+ */
+public class RetryValuable<T> extends BaseValuable<T> {
+
+    private final Supplier<? extends Valuable<? extends T>> source;
+    private final Backoff backoff;
+    /**
+     * 已经重试的次数，各次尝试依次发生，不会并发访问
+     */
+    private int retries;
+    private volatile Cancelable current;
+
+    public RetryValuable(Supplier<? extends Valuable<? extends T>> source, Backoff backoff, Scheduler scheduler) {
+        super(null, scheduler, null);
+        this.source = source;
+        this.backoff = backoff;
+        subscribe();
+    }
+
+    private void subscribe() {
+        if (isCanceled()) return;
+        Valuable<? extends T> v;
+        try {
+            v = ObjectHelper.requireNonNull(source.get(), "retry source returns null");
+        } catch (Exception e) {
+            onComplete(null, e, false);
+            return;
+        }
+        setCurrent(v);
+        observe(v, t -> onComplete(t, null, false), this::onError, Schedulers.immediate());
+    }
+
+    private void onError(Exception e) {
+        if (isCanceled()) return;
+        int attempt = ++retries;
+        try {
+            if (!backoff.shouldRetry(attempt, e)) {
+                onComplete(null, e, false);
+                return;
+            }
+        } catch (Exception ex) {
+            onComplete(null, ex, false);
+            return;
+        }
+        long delay = backoff.delayNanos(attempt);
+        if (delay <= 0) {
+            subscribe();
+        } else {
+            setCurrent(scheduler().schedule(this::subscribe, delay, TimeUnit.NANOSECONDS));
+        }
+    }
+
+    private void setCurrent(Cancelable c) {
+        current = c;
+        if (isCanceled()) {
+            c.cancel();
+        }
+    }
+
+    @Override
+    public void cancel() {
+        super.cancel();
+        Cancelable c = current;
+        if (c != null) {
+            c.cancel();
+        }
+    }
+}
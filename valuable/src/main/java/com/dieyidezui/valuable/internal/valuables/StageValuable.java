@@ -0,0 +1,178 @@
+package com.dieyidezui.valuable.internal.valuables;
+
+import com.dieyidezui.valuable.Scheduler;
+import com.dieyidezui.valuable.Valuable;
+import com.dieyidezui.valuable.shedulers.Schedulers;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * map / onErrorResume 这类一对一转换的基类。
+ * 如果下游 stage 本来就会在上游完成的线程直接执行，那么下游不再向上游注册回调，而是挂在上游的 next 上，
+ * 上游完成后在同一个循环里依次执行下游，省去了每一级的回调对象和递归调用。
+ * 上游在这之外被完成（notifyXXX / cancel）时，next 会退回到普通的注册方式。
+ * created by dieyidezui on 2018/12/14.
+ */
+@SuppressWarnings({"unchecked", "NullableProblems"})
+abstract class StageValuable<T, R> extends BaseValuable<R> {
+
+    private static final Object SEALED = new Object();
+
+    private static final AtomicReferenceFieldUpdater<StageValuable, Object> NEXT =
+            AtomicReferenceFieldUpdater.newUpdater(StageValuable.class, Object.class, "next");
+
+    final Scheduler stageScheduler;
+
+    /**
+     * 完成后置空，避免持有上游，只用于传递 cancel
+     */
+    private Valuable<T> upstream;
+
+    /**
+     * null, 融合的下游 stage，或者下游被取走后的 SEALED
+     */
+    private volatile Object next;
+
+    StageValuable(Valuable<T> source, Scheduler scheduler) {
+        super(null, scheduler, source);
+        this.stageScheduler = scheduler;
+        this.upstream = source;
+    }
+
+    /**
+     * 子类的构造函数最后调用
+     */
+    final void subscribe() {
+        Valuable<T> source = upstream;
+        if (!(source instanceof StageValuable && ((StageValuable<?, T>) source).fuse(this))) {
+            register((BaseValuable<T>) source);
+        }
+    }
+
+    /**
+     * 用普通回调的方式监听上游，回调中调用 {@link #drive(Object)}
+     */
+    abstract void register(BaseValuable<T> source);
+
+    /**
+     * @param r 上游编码后的结果
+     * @return 自身编码后的结果，已取消时返回 null
+     */
+    abstract Object apply(Object r);
+
+    /**
+     * 回调的异常不中断融合的下游，所有 stage 完成之后再抛出第一个异常
+     */
+    final void drive(Object r) {
+        StageValuable s = this;
+        Valuable<?> prev = upstream;
+        RuntimeException error = null;
+        while (true) {
+            Trace tr = s.trace;
+            if (tr != null) {
+                tr.started = System.nanoTime();
+                if (prev instanceof BaseValuable && ((BaseValuable) prev).trace != null) {
+                    tr.scheduled = ((BaseValuable) prev).trace.completed;
+                }
+            }
+            Object o = s.apply(r);
+            if (tr != null) {
+                tr.ran = System.nanoTime();
+            }
+            if (o == null || !s.tryComplete(o)) {
+                break;
+            }
+            RuntimeException e = s.postComplete(true);
+            if (error == null) {
+                error = e;
+            }
+            s.upstream = null;
+            StageValuable n = s.claimNext();
+            if (n == null) {
+                break;
+            }
+            r = s.state();
+            prev = s;
+            s = n;
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    @Override
+    void afterComplete(boolean onScheduler) {
+        upstream = null;
+        StageValuable<R, ?> n = claimNext();
+        if (n != null) {
+            n.register(this);
+        }
+    }
+
+    @Override
+    public void cancel() {
+        Valuable<T> s = upstream;
+        super.cancel();
+        if (s != null) {
+            s.cancel();
+        }
+    }
+
+    /**
+     * 对下游的等待即是对上游的等待
+     */
+    @Override
+    void promote(boolean inline) {
+        Valuable<T> s = upstream;
+        if (s instanceof BaseValuable) {
+            ((BaseValuable<T>) s).promote(inline);
+        }
+    }
+
+    /**
+     * 先取消上游再以异常结束，这样观察者看到异常时上游已经取消。
+     * 调用之前子类需要保证 {@link #apply(Object)} 返回 null，否则上游的取消会先完成自己
+     */
+    final void abort(Exception e) {
+        Valuable<T> s = upstream;
+        if (s != null) {
+            try {
+                s.cancel();
+            } catch (UnsupportedOperationException ignored) {
+                // forever
+            }
+        }
+        onComplete(null, e, false);
+    }
+
+    /**
+     * 和 {@link #claimNext()} 配合：两边都是先写后读，至少有一方能看到对方，由 CAS 决定谁来执行 stage
+     */
+    private boolean fuse(StageValuable<R, ?> stage) {
+        if (next != null || state() != null || !stage.runsInline(scheduler())
+                || !NEXT.compareAndSet(this, null, stage)) {
+            return false;
+        }
+        return state() == null || !NEXT.compareAndSet(this, stage, SEALED);
+    }
+
+    /**
+     * 完成之后调用，取走融合的下游
+     */
+    private StageValuable<R, ?> claimNext() {
+        Object n = next;
+        if (n instanceof StageValuable && NEXT.compareAndSet(this, n, SEALED)) {
+            return (StageValuable<R, ?>) n;
+        }
+        return null;
+    }
+
+    /**
+     * 上游在 origin 上完成时，本 stage 是否会直接在当前线程执行
+     */
+    private boolean runsInline(Scheduler origin) {
+        return stageScheduler == Schedulers.upstream()
+                || stageScheduler == Schedulers.immediate()
+                || stageScheduler.equals(origin);
+    }
+}
@@ -0,0 +1,64 @@
+package com.dieyidezui.valuable.internal.valuables;
+
+import com.dieyidezui.valuable.Valuable;
+import com.dieyidezui.valuable.exceptions.TimeoutException;
+import com.dieyidezui.valuable.internal.util.HashedWheelTimer;
+import com.dieyidezui.valuable.shedulers.Schedulers;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 上游在限定时间内没有完成则以 TimeoutException 失败，并取消上游。
+ * 定时由共享的 {@link HashedWheelTimer} 负责，不占用额外的线程。
+ * created by dieyidezui on 2018/12/28.
+ */
+public class TimeoutValuable<T> extends StageValuable<T, T> implements Runnable {
+
+    private HashedWheelTimer.Timeout timeout;
+    private volatile boolean expired;
+
+    public TimeoutValuable(Valuable<T> source, long time, TimeUnit unit) {
+        super(source, Schedulers.upstream());
+        subscribe();
+        if (state() == null) {
+            timeout = HashedWheelTimer.shared().schedule(this, time, unit);
+        }
+    }
+
+    @Override
+    void register(BaseValuable<T> source) {
+        source.complete(
+                t -> drive(encode(t, null)), Schedulers.upstream(),
+                e -> drive(encode(null, e)), Schedulers.upstream());
+    }
+
+    @Override
+    Object apply(Object r) {
+        if (expired) return null;
+        cancelTimer();
+        return r;
+    }
+
+    @Override
+    public void cancel() {
+        super.cancel();
+        cancelTimer();
+    }
+
+    /**
+     * 定时器线程回调
+     */
+    @Override
+    public void run() {
+        expired = true;
+        abort(new TimeoutException("Timeout"));
+    }
+
+    private void cancelTimer() {
+        // 定时器可能还没设置，这时到期后 abort 不会生效，只是晚一些释放
+        HashedWheelTimer.Timeout t = timeout;
+        if (t != null) {
+            t.cancel();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.dieyidezui.valuable.internal.valuables;
+
+import android.support.annotation.Nullable;
+
+import com.dieyidezui.valuable.ValuableTracer;
+import com.dieyidezui.valuable.ValuableTracer.Stage;
+import com.dieyidezui.valuable.function.Consumer;
+
+/**
+ * 一个 Valuable 各个时间点的记录，只在安装了 tracer 时创建。
+ * 完成和命名的先后不确定，两者都发生之后才上报。
+ * created by dieyidezui on 2018/12/26.
+ */
+final class Trace {
+
+    final ValuableTracer tracer;
+    final long created = System.nanoTime();
+    volatile long scheduled;
+    volatile long started;
+    volatile long ran;
+    volatile long completed;
+    /**
+     * flatMap 的 ran 之后是等待内部的 Valuable
+     */
+    boolean inner;
+
+    @Nullable
+    private volatile String name;
+    private boolean done;
+    private boolean canceled;
+
+    Trace(ValuableTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    synchronized void name(String name) {
+        boolean report = this.name == null && done && !canceled;
+        this.name = name;
+        if (report) {
+            report(name);
+        }
+    }
+
+    synchronized void complete(boolean canceled) {
+        completed = System.nanoTime();
+        done = true;
+        this.canceled = canceled;
+        String n = name;
+        if (n != null && !canceled) {
+            report(n);
+        }
+    }
+
+    private void report(String name) {
+        long started = this.started, ran = this.ran, scheduled = this.scheduled;
+        if (started != 0) {
+            if (scheduled != 0) {
+                tracer.record(name, Stage.QUEUE, started - scheduled);
+            }
+            if (ran != 0) {
+                tracer.record(name, Stage.RUN, ran - started);
+            }
+        }
+        if (inner && ran != 0) {
+            tracer.record(name, Stage.INNER, completed - ran);
+        }
+        tracer.record(name, Stage.TOTAL, completed - created);
+    }
+
+    static <T> Consumer<T> wrap(@Nullable Trace trace, Consumer<T> consumer) {
+        return trace == null ? consumer : new TracedConsumer<>(trace, consumer);
+    }
+
+    /**
+     * 记录观察者的等待和执行耗时，观察者执行时 Valuable 已经完成
+     */
+    static final class TracedConsumer<T> implements Consumer<T> {
+        private final Trace trace;
+        private final Consumer<T> consumer;
+
+        TracedConsumer(Trace trace, Consumer<T> consumer) {
+            this.trace = trace;
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void accept(T t) {
+            long start = System.nanoTime();
+            try {
+                consumer.accept(t);
+            } finally {
+                String n = trace.name;
+                if (n != null) {
+                    trace.tracer.record(n, Stage.DISPATCH, start - trace.completed);
+                    trace.tracer.record(n, Stage.CALLBACK, System.nanoTime() - start);
+                }
+            }
+        }
+    }
+}
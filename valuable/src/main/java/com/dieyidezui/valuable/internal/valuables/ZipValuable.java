@@ -0,0 +1,138 @@
+package com.dieyidezui.valuable.internal.valuables;
+
+import com.dieyidezui.valuable.Scheduler;
+import com.dieyidezui.valuable.Valuable;
+import com.dieyidezui.valuable.exceptions.OverloadException;
+import com.dieyidezui.valuable.function.Function6;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * 固定个数（最多 6 个）输入的 {@link CombineValuable}，结果直接写入字段，不分配数组。
+ * 不足 6 个的输入传 null，对应的参数也是 null。
+ * created by dieyidezui on 2019/1/18.
+ */
+@SuppressWarnings({"unchecked", "NullableProblems"})
+public class ZipValuable<R> extends BaseValuable<R> {
+
+    private static final AtomicIntegerFieldUpdater<ZipValuable> REMAINING =
+            AtomicIntegerFieldUpdater.newUpdater(ZipValuable.class, "remaining");
+
+    private final Function6<Object, Object, Object, Object, Object, Object, ? extends R> zipper;
+    private Object v0, v1, v2, v3, v4, v5;
+    /**
+     * 完成后置空
+     */
+    private Valuable<?> a, b, c, d, e, f;
+    private volatile int remaining;
+
+    public ZipValuable(Valuable<?> a, Valuable<?> b, Valuable<?> c, Valuable<?> d, Valuable<?> e, Valuable<?> f,
+                       Function6<Object, Object, Object, Object, Object, Object, ? extends R> zipper, Scheduler scheduler) {
+        super(null, scheduler, null);
+        this.zipper = zipper;
+        this.a = a;
+        this.b = b;
+        this.c = c;
+        this.d = d;
+        this.e = e;
+        this.f = f;
+        remaining = count(a) + count(b) + count(c) + count(d) + count(e) + count(f);
+        register(a, 0);
+        register(b, 1);
+        register(c, 2);
+        register(d, 3);
+        register(e, 4);
+        register(f, 5);
+    }
+
+    private static int count(Valuable<?> v) {
+        return v == null ? 0 : 1;
+    }
+
+    private void register(Valuable<?> v, int index) {
+        if (v != null) {
+            ((BaseValuable<?>) v).whenComplete(new Input(this, index));
+        }
+    }
+
+    void onInput(int index, Object r) {
+        if (a == null) return;
+        if (!isSuccess(r)) {
+            onComplete(null, errorOf(r), false);
+            return;
+        }
+        Object value = valueOf(r);
+        switch (index) {
+            case 0:
+                v0 = value;
+                break;
+            case 1:
+                v1 = value;
+                break;
+            case 2:
+                v2 = value;
+                break;
+            case 3:
+                v3 = value;
+                break;
+            case 4:
+                v4 = value;
+                break;
+            default:
+                v5 = value;
+                break;
+        }
+        if (REMAINING.decrementAndGet(this) == 0) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        if (isCanceled()) return;
+        try {
+            Object x0 = v0, x1 = v1, x2 = v2, x3 = v3, x4 = v4, x5 = v5;
+            scheduler().schedule(new Task(() -> zipper.apply(x0, x1, x2, x3, x4, x5)));
+        } catch (OverloadException ex) {
+            onComplete(null, ex, false);
+        }
+    }
+
+    @Override
+    void afterComplete(boolean onScheduler) {
+        v0 = v1 = v2 = v3 = v4 = v5 = null;
+        a = b = c = d = e = f = null;
+    }
+
+    @Override
+    public void cancel() {
+        Valuable<?> a = this.a, b = this.b, c = this.c, d = this.d, e = this.e, f = this.f;
+        super.cancel();
+        cancel(a);
+        cancel(b);
+        cancel(c);
+        cancel(d);
+        cancel(e);
+        cancel(f);
+    }
+
+    private static void cancel(Valuable<?> v) {
+        if (v != null) {
+            v.cancel();
+        }
+    }
+
+    static final class Input extends Completion {
+        private final ZipValuable<?> parent;
+        private final int index;
+
+        Input(ZipValuable<?> parent, int index) {
+            this.parent = parent;
+            this.index = index;
+        }
+
+        @Override
+        void run(BaseValuable<?> source, Object result, boolean onScheduler) {
+            parent.onInput(index, result);
+        }
+    }
+}
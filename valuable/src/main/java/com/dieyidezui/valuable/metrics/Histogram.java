@@ -0,0 +1,102 @@
+package com.dieyidezui.valuable.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 以 2 的幂为桶的纳秒耗时直方图，按线程分散写入。
+ * 分位数取所在桶的上界，误差在一倍以内，用于观察数量级和趋势足够了。
+ * created by dieyidezui on 2018/12/24.
+ */
+public final class Histogram {
+
+    private static final int BUCKETS = 64;
+
+    /**
+     * 64 个桶 + sum，补齐到 PAD 的倍数
+     */
+    private static final int STRIDE = 72;
+
+    private final AtomicLongArray cells = new AtomicLongArray(StripedCounter.STRIPES * STRIDE);
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int base = StripedCounter.stripe() * STRIDE;
+        cells.incrementAndGet(base + bucket(nanos));
+        cells.addAndGet(base + BUCKETS, nanos);
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long sum = 0;
+        for (int s = 0; s < StripedCounter.STRIPES; s++) {
+            int base = s * STRIDE;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += cells.get(base + i);
+            }
+            sum += cells.get(base + BUCKETS);
+        }
+        return new Snapshot(counts, sum);
+    }
+
+    static int bucket(long nanos) {
+        return nanos == 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+    }
+
+    static long upperBound(int bucket) {
+        return bucket >= 62 ? Long.MAX_VALUE : (1L << (bucket + 1)) - 1;
+    }
+
+    /**
+     * 单位均为纳秒
+     */
+    public static final class Snapshot {
+        public final long count;
+        public final long mean;
+        public final long p50;
+        public final long p90;
+        public final long p99;
+        public final long p999;
+        public final long max;
+
+        Snapshot(long[] counts, long sum) {
+            long total = 0;
+            int highest = -1;
+            for (int i = 0; i < counts.length; i++) {
+                total += counts[i];
+                if (counts[i] > 0) {
+                    highest = i;
+                }
+            }
+            count = total;
+            mean = total == 0 ? 0 : sum / total;
+            p50 = percentile(counts, total, 0.5);
+            p90 = percentile(counts, total, 0.9);
+            p99 = percentile(counts, total, 0.99);
+            p999 = percentile(counts, total, 0.999);
+            max = highest < 0 ? 0 : upperBound(highest);
+        }
+
+        private static long percentile(long[] counts, long total, double q) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * q);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(counts.length - 1);
+        }
+
+        @Override
+        public String toString() {
+            return "{count=" + count + ", mean=" + mean + ", p50=" + p50 + ", p90=" + p90
+                    + ", p99=" + p99 + ", p999=" + p999 + ", max=" + max + '}';
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.dieyidezui.valuable.metrics;
+
+import com.dieyidezui.valuable.internal.util.Rejectable;
+import com.dieyidezui.valuable.internal.util.Skippable;
+import com.dieyidezui.valuable.shedulers.SchedulerHook;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 统计每个 Scheduler 的排队耗时、执行耗时、执行中和排队中的任务数
+ * <pre>
+ * SchedulerMetrics metrics = new SchedulerMetrics();
+ * Schedulers.setHook(metrics);
+ * ...
+ * Map&lt;String, SchedulerSnapshot&gt; snapshot = metrics.snapshot();
+ * </pre>
+ * created by dieyidezui on 2018/12/24.
+ */
+public class SchedulerMetrics implements SchedulerHook {
+
+    private final ConcurrentHashMap<String, Stats> stats = new ConcurrentHashMap<>();
+
+    @Override
+    public Runnable onSchedule(String scheduler, Runnable command) {
+        Stats s = stats(scheduler);
+        s.scheduled.increment();
+        return new Timed(s, command);
+    }
+
+    @Override
+    public void onRejected(String scheduler, Runnable command) {
+        stats(scheduler).rejected.increment();
+    }
+
+    public Map<String, SchedulerSnapshot> snapshot() {
+        Map<String, SchedulerSnapshot> map = new HashMap<>();
+        for (Map.Entry<String, Stats> e : stats.entrySet()) {
+            map.put(e.getKey(), e.getValue().snapshot(e.getKey()));
+        }
+        return map;
+    }
+
+    private Stats stats(String scheduler) {
+        Stats s = stats.get(scheduler);
+        if (s == null) {
+            Stats created = new Stats();
+            s = stats.putIfAbsent(scheduler, created);
+            if (s == null) {
+                s = created;
+            }
+        }
+        return s;
+    }
+
+    static class Stats {
+        final StripedCounter scheduled = new StripedCounter();
+        final StripedCounter rejected = new StripedCounter();
+        final StripedCounter skipped = new StripedCounter();
+        final Histogram queueTime = new Histogram();
+        final Histogram runTime = new Histogram();
+
+        SchedulerSnapshot snapshot(String name) {
+            // 先读 runTime 再读 queueTime，active 不会是负数
+            Histogram.Snapshot run = runTime.snapshot();
+            Histogram.Snapshot queue = queueTime.snapshot();
+            long dropped = rejected.sum();
+            return new SchedulerSnapshot(name, scheduled.sum(), dropped, skipped.sum(), queue, run);
+        }
+    }
+
+    static class Timed implements Runnable, Rejectable, Skippable {
+        private final Stats stats;
+        private final Runnable command;
+        private final long enqueued = System.nanoTime();
+        /**
+         * 已经被线程池跳过，之后的 run 直接返回
+         */
+        private boolean skipped;
+
+        Timed(Stats stats, Runnable command) {
+            this.stats = stats;
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            if (!skipped && isSkippable()) {
+                // 没有在执行之前检查的线程池（例如 single）在这里跳过
+                onSkipped();
+            }
+            if (skipped) {
+                return;
+            }
+            long start = System.nanoTime();
+            stats.queueTime.record(start - enqueued);
+            try {
+                command.run();
+            } finally {
+                stats.runTime.record(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public void reject(Exception e) {
+            stats.rejected.increment();
+            if (command instanceof Rejectable) {
+                ((Rejectable) command).reject(e);
+            }
+        }
+
+        @Override
+        public boolean isSkippable() {
+            return command instanceof Skippable && ((Skippable) command).isSkippable();
+        }
+
+        @Override
+        public void onSkipped() {
+            if (skipped) {
+                return;
+            }
+            skipped = true;
+            // 离开队列并且立即完成，queued 和 completed 才能对得上
+            stats.queueTime.record(System.nanoTime() - enqueued);
+            stats.runTime.record(0);
+            stats.skipped.increment();
+            ((Skippable) command).onSkipped();
+        }
+    }
+}
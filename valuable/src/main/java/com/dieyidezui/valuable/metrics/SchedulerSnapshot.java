@@ -0,0 +1,55 @@
+package com.dieyidezui.valuable.metrics;
+
+/**
+ * 某个 Scheduler 的统计快照，各计数分别读取，彼此之间不保证严格一致
+ * created by dieyidezui on 2018/12/24.
+ */
+public final class SchedulerSnapshot {
+    public final String name;
+    public final long scheduled;
+    public final long completed;
+    /**
+     * 被拒绝或者被丢弃的任务数
+     */
+    public final long rejected;
+    /**
+     * 排队期间被取消，开始执行时跳过或者从队列中移除的任务数，包含在 completed 中，执行耗时记为 0
+     */
+    public final long skipped;
+    /**
+     * 正在执行的任务数
+     */
+    public final long active;
+    /**
+     * 排队中的任务数
+     */
+    public final long queued;
+    /**
+     * 从 schedule 到开始执行
+     */
+    public final Histogram.Snapshot queueTime;
+    /**
+     * 执行耗时
+     */
+    public final Histogram.Snapshot runTime;
+
+    SchedulerSnapshot(String name, long scheduled, long rejected, long skipped,
+                      Histogram.Snapshot queueTime, Histogram.Snapshot runTime) {
+        this.name = name;
+        this.scheduled = scheduled;
+        this.completed = runTime.count;
+        this.rejected = rejected;
+        this.skipped = skipped;
+        this.active = Math.max(0, queueTime.count - runTime.count);
+        this.queued = Math.max(0, scheduled - rejected - queueTime.count);
+        this.queueTime = queueTime;
+        this.runTime = runTime;
+    }
+
+    @Override
+    public String toString() {
+        return name + "{scheduled=" + scheduled + ", completed=" + completed + ", rejected=" + rejected
+                + ", skipped=" + skipped + ", active=" + active + ", queued=" + queued
+                + ", queueTime=" + queueTime + ", runTime=" + runTime + '}';
+    }
+}
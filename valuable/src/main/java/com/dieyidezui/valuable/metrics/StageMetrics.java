@@ -0,0 +1,60 @@
+package com.dieyidezui.valuable.metrics;
+
+import com.dieyidezui.valuable.ValuableTracer;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按 Valuable 的名字和阶段统计耗时
+ * <pre>
+ * StageMetrics metrics = new StageMetrics();
+ * Valuable.setTracer(metrics);
+ * Valuable.call(this::load).name("load").map(...);
+ * ...
+ * Histogram.Snapshot run = metrics.snapshot().get("load").get(ValuableTracer.Stage.RUN);
+ * </pre>
+ * created by dieyidezui on 2018/12/26.
+ */
+public class StageMetrics implements ValuableTracer {
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final ConcurrentHashMap<String, Histogram[]> histograms = new ConcurrentHashMap<>();
+
+    @Override
+    public void record(String name, Stage stage, long nanos) {
+        Histogram[] h = histograms.get(name);
+        if (h == null) {
+            Histogram[] created = new Histogram[STAGES.length];
+            for (int i = 0; i < created.length; i++) {
+                created[i] = new Histogram();
+            }
+            h = histograms.putIfAbsent(name, created);
+            if (h == null) {
+                h = created;
+            }
+        }
+        h[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * 没有记录过的阶段不出现在结果中
+     */
+    public Map<String, Map<Stage, Histogram.Snapshot>> snapshot() {
+        Map<String, Map<Stage, Histogram.Snapshot>> map = new HashMap<>();
+        for (Map.Entry<String, Histogram[]> e : histograms.entrySet()) {
+            Map<Stage, Histogram.Snapshot> stages = new EnumMap<>(Stage.class);
+            for (Stage stage : STAGES) {
+                Histogram.Snapshot s = e.getValue()[stage.ordinal()].snapshot();
+                if (s.count > 0) {
+                    stages.put(stage, s);
+                }
+            }
+            map.put(e.getKey(), stages);
+        }
+        return map;
+    }
+}
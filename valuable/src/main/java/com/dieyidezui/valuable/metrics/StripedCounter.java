@@ -0,0 +1,48 @@
+package com.dieyidezui.valuable.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 按线程分散到不同 cell 的计数器，写多读少时代替 AtomicLong（LongAdder 需要 API 24）
+ * created by dieyidezui on 2018/12/24.
+ */
+public final class StripedCounter {
+
+    /**
+     * 每个 cell 占 64 字节，避免伪共享
+     */
+    static final int PAD = 8;
+
+    static final int STRIPES;
+
+    static {
+        int n = 1;
+        int cpus = Runtime.getRuntime().availableProcessors();
+        while (n < cpus && n < 64) {
+            n <<= 1;
+        }
+        STRIPES = n;
+    }
+
+    static int stripe() {
+        return (int) Thread.currentThread().getId() & (STRIPES - 1);
+    }
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long x) {
+        cells.addAndGet(stripe() * PAD, x);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PAD);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,56 @@
+package com.dieyidezui.valuable.shedulers;
+
+import com.dieyidezui.valuable.Cancelable;
+import com.dieyidezui.valuable.Scheduler;
+import com.dieyidezui.valuable.exceptions.OverloadException;
+import com.dieyidezui.valuable.internal.util.HashedWheelTimer;
+import com.dieyidezui.valuable.internal.util.Rejectable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在共享的定时器上等待，到期后再交给目标 Scheduler
+ * created by dieyidezui on 2018/12/30.
+ */
+class DelayedTask implements Runnable, Cancelable {
+
+    private final Scheduler scheduler;
+    private final Runnable command;
+    private final HashedWheelTimer.Timeout timeout;
+
+    DelayedTask(Scheduler scheduler, Runnable command, long delay, TimeUnit unit) {
+        this.scheduler = scheduler;
+        this.command = command;
+        timeout = HashedWheelTimer.shared().schedule(this, delay, unit);
+    }
+
+    /**
+     * 定时器线程回调
+     */
+    @Override
+    public void run() {
+        handOff(scheduler, command);
+    }
+
+    @Override
+    public void cancel() {
+        timeout.cancel();
+    }
+
+    @Override
+    public boolean isCanceled() {
+        return timeout.isCancelled();
+    }
+
+    static void handOff(Scheduler scheduler, Runnable command) {
+        try {
+            scheduler.schedule(command);
+        } catch (OverloadException e) {
+            if (command instanceof Rejectable) {
+                ((Rejectable) command).reject(e);
+            } else {
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.dieyidezui.valuable.shedulers;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 事件循环：任务先进入自己的队列，队列非空时只向 poster 投递一个 drain，
+ * drain 依次执行队列中的任务，超过 budget 后重新投递自己并让出线程，避免长时间占用（例如主线程的一帧）。
+ * poster 可以是 Handler::post，也可以是单线程的 Executor，因此脱离 Android 也可以使用。
+ * 任务抛出异常时先重新投递 drain 再抛出，剩余的任务不会丢失。
+ * 未指定所属线程时，只有正在 drain 的线程被视为属于该事件循环。
+ * created by dieyidezui on 2019/1/17.
+ */
+final class EventLoopExecutor implements Executor, ThreadBound {
+
+    private final Executor poster;
+    private final long budgetNanos;
+    private final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    /**
+     * 尚未被 drain 确认的提交次数，从 0 变为 1 的一方负责投递 drain
+     */
+    private final AtomicInteger wip = new AtomicInteger();
+    private final Runnable drain = this::drain;
+    /**
+     * 所属的线程，例如主线程，为 null 时以 draining 为准
+     */
+    @Nullable
+    private final Thread thread;
+    @Nullable
+    private volatile Thread draining;
+
+    EventLoopExecutor(Executor poster, long budgetNanos, @Nullable Thread thread) {
+        this.poster = poster;
+        this.budgetNanos = budgetNanos;
+        this.thread = thread;
+    }
+
+    @Override
+    public boolean isCurrentThread() {
+        Thread t = Thread.currentThread();
+        return t == thread || t == draining;
+    }
+
+    @Override
+    public void execute(@NonNull Runnable command) {
+        queue.offer(command);
+        if (wip.getAndIncrement() == 0) {
+            poster.execute(drain);
+        }
+    }
+
+    private void drain() {
+        draining = Thread.currentThread();
+        try {
+            drainLoop();
+        } finally {
+            draining = null;
+        }
+    }
+
+    private void drainLoop() {
+        long deadline = System.nanoTime() + budgetNanos;
+        int missed = wip.get();
+        for (; ; ) {
+            Runnable r;
+            while ((r = queue.poll()) != null) {
+                boolean ok = false;
+                try {
+                    r.run();
+                    ok = true;
+                } finally {
+                    if (!ok) {
+                        poster.execute(drain);
+                    }
+                }
+                if (System.nanoTime() - deadline >= 0 && !queue.isEmpty()) {
+                    // 让出线程，wip 不归零，期间的提交不会重复投递
+                    poster.execute(drain);
+                    return;
+                }
+            }
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.dieyidezui.valuable.shedulers;
+
+import com.dieyidezui.valuable.exceptions.OverloadException;
+import com.dieyidezui.valuable.internal.util.Rejectable;
+import com.dieyidezui.valuable.internal.util.Skippable;
+import com.dieyidezui.valuable.metrics.Histogram;
+
+import java.util.Iterator;
+import java.util.Queue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 执行过载策略并计数
+ * created by dieyidezui on 2018/12/22.
+ */
+final class Overload {
+
+    final String name;
+    final OverloadPolicy policy;
+
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong callerRuns = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    Overload(String name, OverloadPolicy policy) {
+        this.name = name;
+        this.policy = policy;
+    }
+
+    void callerRuns(Runnable command) {
+        callerRuns.incrementAndGet();
+        command.run();
+    }
+
+    OverloadException reject() {
+        rejected.incrementAndGet();
+        return new OverloadException(name + " is overloaded.");
+    }
+
+    /**
+     * 不是 Rejectable 的任务会被直接丢掉
+     */
+    void drop(Runnable command) {
+        dropped.incrementAndGet();
+        if (command instanceof Rejectable) {
+            ((Rejectable) command).reject(new OverloadException(name + " is overloaded, task dropped."));
+        }
+    }
+
+    /**
+     * 执行之前检查，需要跳过时计数
+     */
+    boolean skip(Runnable command) {
+        if (command instanceof Skippable && ((Skippable) command).isSkippable()) {
+            skipped.incrementAndGet();
+            ((Skippable) command).onSkipped();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 队列满时移除其中可以跳过的任务。{@link PriorityTaskQueue} 在锁内一次遍历完成，
+     * 其他队列（SynchronousQueue、worker 的本地队列）的迭代器本身就能在遍历中移除
+     *
+     * @return 是否移除了任务
+     */
+    boolean purge(Queue<Runnable> queue) {
+        int n = 0;
+        if (queue instanceof PriorityTaskQueue) {
+            n = ((PriorityTaskQueue) queue).removeSkippable();
+        } else {
+            for (Iterator<Runnable> it = queue.iterator(); it.hasNext(); ) {
+                Runnable r = it.next();
+                if (r instanceof Skippable && ((Skippable) r).isSkippable()) {
+                    it.remove();
+                    ((Skippable) r).onSkipped();
+                    n++;
+                }
+            }
+        }
+        if (n == 0) {
+            return false;
+        }
+        skipped.addAndGet(n);
+        return true;
+    }
+
+    PoolStats stats(int queued, Histogram[] queueTime) {
+        return new PoolStats(queued, rejected.get(), callerRuns.get(), dropped.get(), skipped.get(),
+                PriorityTaskQueue.snapshot(queueTime));
+    }
+}
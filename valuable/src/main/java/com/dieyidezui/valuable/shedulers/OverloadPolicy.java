@@ -0,0 +1,20 @@
+package com.dieyidezui.valuable.shedulers;
+
+/**
+ * 有界线程池满了之后的策略
+ * created by dieyidezui on 2018/12/22.
+ */
+public enum OverloadPolicy {
+    /**
+     * 在提交任务的线程直接执行
+     */
+    CALLER_RUNS,
+    /**
+     * 拒绝新任务，对应的 Valuable 以 OverloadException 失败
+     */
+    REJECT,
+    /**
+     * 丢弃队列中最老的任务，对应的 Valuable 以 OverloadException 失败
+     */
+    DROP_OLDEST
+}
@@ -0,0 +1,73 @@
+package com.dieyidezui.valuable.shedulers;
+
+import com.dieyidezui.valuable.Cancelable;
+import com.dieyidezui.valuable.Scheduler;
+import com.dieyidezui.valuable.internal.util.HashedWheelTimer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每次执行完之后按照下一次的预定时间重新挂到定时器上，不会累积误差，也不会并发执行
+ * created by dieyidezui on 2018/12/30.
+ */
+class PeriodicTask implements Runnable, Cancelable {
+
+    private final Scheduler scheduler;
+    private final Runnable command;
+    private final long periodNanos;
+    private final Runnable tick = this::handOff;
+    private long next;
+    private volatile boolean canceled;
+    private volatile HashedWheelTimer.Timeout timeout;
+
+    PeriodicTask(Scheduler scheduler, Runnable command, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be positive.");
+        }
+        this.scheduler = scheduler;
+        this.command = command;
+        this.periodNanos = unit.toNanos(period);
+        long delay = Math.max(0, unit.toNanos(initialDelay));
+        next = System.nanoTime() + delay;
+        timeout = HashedWheelTimer.shared().schedule(tick, delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 定时器线程回调
+     */
+    private void handOff() {
+        if (!canceled) {
+            DelayedTask.handOff(scheduler, this);
+        }
+    }
+
+    @Override
+    public void run() {
+        if (canceled) {
+            return;
+        }
+        try {
+            command.run();
+        } catch (RuntimeException e) {
+            canceled = true;
+            throw e;
+        }
+        next += periodNanos;
+        long delay = Math.max(0, next - System.nanoTime());
+        timeout = HashedWheelTimer.shared().schedule(tick, delay, TimeUnit.NANOSECONDS);
+        if (canceled) {
+            timeout.cancel();
+        }
+    }
+
+    @Override
+    public void cancel() {
+        canceled = true;
+        timeout.cancel();
+    }
+
+    @Override
+    public boolean isCanceled() {
+        return canceled;
+    }
+}
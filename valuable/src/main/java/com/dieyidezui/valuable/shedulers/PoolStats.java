@@ -0,0 +1,44 @@
+package com.dieyidezui.valuable.shedulers;
+
+import com.dieyidezui.valuable.metrics.Histogram;
+
+/**
+ * 线程池某一时刻的状态
+ * created by dieyidezui on 2018/12/22.
+ */
+public final class PoolStats {
+    /**
+     * 排队中的任务数
+     */
+    public final int queued;
+    public final long rejected;
+    public final long callerRuns;
+    public final long dropped;
+    /**
+     * 排队期间被取消，因此没有执行或者被移出队列的任务数
+     */
+    public final long skipped;
+    private final Histogram.Snapshot[] queueTime;
+
+    PoolStats(int queued, long rejected, long callerRuns, long dropped, long skipped, Histogram.Snapshot[] queueTime) {
+        this.queued = queued;
+        this.rejected = rejected;
+        this.callerRuns = callerRuns;
+        this.dropped = dropped;
+        this.skipped = skipped;
+        this.queueTime = queueTime;
+    }
+
+    /**
+     * 该优先级的任务在队列中的等待时间，worker 自己提交到本地队列的任务不计入
+     */
+    public Histogram.Snapshot queueTime(Priority priority) {
+        return queueTime[priority.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        return "PoolStats{queued=" + queued + ", rejected=" + rejected
+                + ", callerRuns=" + callerRuns + ", dropped=" + dropped + ", skipped=" + skipped + '}';
+    }
+}
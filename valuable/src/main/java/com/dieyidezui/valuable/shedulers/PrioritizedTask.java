@@ -0,0 +1,45 @@
+package com.dieyidezui.valuable.shedulers;
+
+import com.dieyidezui.valuable.internal.util.Rejectable;
+import com.dieyidezui.valuable.internal.util.Skippable;
+
+/**
+ * 带优先级的任务，由 {@link PriorityTaskQueue} 识别，转发 Rejectable 和 Skippable
+ * created by dieyidezui on 2019/1/15.
+ */
+final class PrioritizedTask implements Runnable, Rejectable, Skippable {
+
+    final Runnable command;
+    final Priority priority;
+
+    PrioritizedTask(Runnable command, Priority priority) {
+        this.command = command;
+        this.priority = priority;
+    }
+
+    @Override
+    public void run() {
+        command.run();
+    }
+
+    @Override
+    public void reject(Exception e) {
+        if (command instanceof Rejectable) {
+            ((Rejectable) command).reject(e);
+        }
+    }
+
+    @Override
+    public boolean isSkippable() {
+        return command instanceof Skippable && ((Skippable) command).isSkippable();
+    }
+
+    @Override
+    public void onSkipped() {
+        ((Skippable) command).onSkipped();
+    }
+
+    static Priority priorityOf(Runnable r) {
+        return r instanceof PrioritizedTask ? ((PrioritizedTask) r).priority : Priority.NORMAL;
+    }
+}
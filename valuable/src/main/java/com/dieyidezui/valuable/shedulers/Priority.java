@@ -0,0 +1,18 @@
+package com.dieyidezui.valuable.shedulers;
+
+/**
+ * 任务在 io() / computation() 队列中的优先级，通过 {@link Schedulers#io(Priority)} 等获取对应的 Scheduler。
+ * 低优先级的任务每等待 {@link Schedulers#AGING_MILLIS} 毫秒提升一级，不会被饿死
+ * created by dieyidezui on 2019/1/15.
+ */
+public enum Priority {
+    /**
+     * 用户正在等待的工作
+     */
+    HIGH,
+    NORMAL,
+    /**
+     * 预取等后台工作
+     */
+    LOW
+}
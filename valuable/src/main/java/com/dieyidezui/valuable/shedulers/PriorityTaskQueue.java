@@ -0,0 +1,430 @@
+package com.dieyidezui.valuable.shedulers;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.dieyidezui.valuable.internal.util.ObjectHelper;
+import com.dieyidezui.valuable.internal.util.Skippable;
+import com.dieyidezui.valuable.internal.util.Skippables;
+import com.dieyidezui.valuable.metrics.Histogram;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 每个优先级一个先进先出的链表，总容量为 capacity。
+ * 出队时比较各链表的头部，取 入队时间 + 优先级 * aging 最小的一个：
+ * 同时入队时高优先级先执行，低优先级每多等待 aging 就相当于提升一级，因此不会被饿死。
+ * 出队时按优先级记录排队耗时。
+ * created by dieyidezui on 2019/1/15.
+ */
+final class PriorityTaskQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    private final int capacity;
+    private final long agingNanos;
+    private final Histogram[] queueTime;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    /**
+     * 以下由 lock 保护
+     */
+    private final Node[] heads = new Node[PRIORITIES.length];
+    private final Node[] tails = new Node[PRIORITIES.length];
+    private int count;
+    /**
+     * 上次 {@link #removeSkippable()} 时的 {@link Skippables#epoch()}
+     */
+    private long purgedEpoch = -1;
+
+    /**
+     * @param queueTime 按 {@link Priority#ordinal()} 记录排队耗时，可以在多个队列间共享
+     */
+    PriorityTaskQueue(int capacity, long agingNanos, Histogram[] queueTime) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.capacity = capacity;
+        this.agingNanos = agingNanos;
+        this.queueTime = queueTime;
+    }
+
+    static Histogram[] newQueueTime() {
+        Histogram[] h = new Histogram[PRIORITIES.length];
+        for (int i = 0; i < h.length; i++) {
+            h[i] = new Histogram();
+        }
+        return h;
+    }
+
+    @Override
+    public boolean offer(@NonNull Runnable r) {
+        ObjectHelper.requireNonNull(r);
+        lock.lock();
+        try {
+            if (count == capacity) {
+                return false;
+            }
+            enqueue(r);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(@NonNull Runnable r) throws InterruptedException {
+        ObjectHelper.requireNonNull(r);
+        lock.lockInterruptibly();
+        try {
+            while (count == capacity) {
+                notFull.await();
+            }
+            enqueue(r);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable r, long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        ObjectHelper.requireNonNull(r);
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(r);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Nullable
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return count == 0 ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @NonNull
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Nullable
+    @Override
+    public Runnable poll(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 过载丢弃时使用：取出最低优先级中等待最久的任务
+     */
+    @Nullable
+    Runnable pollLowest() {
+        lock.lock();
+        try {
+            for (int i = PRIORITIES.length - 1; i >= 0; i--) {
+                if (heads[i] != null) {
+                    return unlinkHead(i).task;
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 队列满时使用：在锁内一次遍历移除所有可以跳过的任务，锁外调用它们的 onSkipped。
+     * 上次清理之后没有任务变得可以跳过时直接返回
+     *
+     * @return 移除的任务数
+     */
+    int removeSkippable() {
+        long epoch = Skippables.epoch();
+        Node removed = null;
+        int n = 0;
+        lock.lock();
+        try {
+            if (epoch == purgedEpoch) {
+                return 0;
+            }
+            purgedEpoch = epoch;
+            for (int i = 0; i < PRIORITIES.length; i++) {
+                Node prev = null;
+                Node x = heads[i];
+                while (x != null) {
+                    Node next = x.next;
+                    if (x.task instanceof Skippable && ((Skippable) x.task).isSkippable()) {
+                        unlink(i, prev, x);
+                        x.next = removed;
+                        removed = x;
+                        n++;
+                    } else {
+                        prev = x;
+                    }
+                    x = next;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (Node x = removed; x != null; x = x.next) {
+            ((Skippable) x.task).onSkipped();
+        }
+        return n;
+    }
+
+    @Nullable
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            int i = best();
+            return i < 0 ? null : heads[i].task;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (o == null) {
+            return false;
+        }
+        lock.lock();
+        try {
+            for (int i = 0; i < PRIORITIES.length; i++) {
+                Node prev = null;
+                for (Node n = heads[i]; n != null; prev = n, n = n.next) {
+                    if (n.task == o) {
+                        unlink(i, prev, n);
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(@NonNull Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(@NonNull Collection<? super Runnable> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        lock.lock();
+        try {
+            int n = 0;
+            while (n < maxElements && count > 0) {
+                c.add(dequeue());
+                n++;
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 弱一致的快照，remove 会从队列中移除对应的任务
+     */
+    @NonNull
+    @Override
+    public Iterator<Runnable> iterator() {
+        List<Runnable> snapshot = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Node head : heads) {
+                for (Node n = head; n != null; n = n.next) {
+                    snapshot.add(n.task);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return new Itr(snapshot);
+    }
+
+    static Histogram.Snapshot[] snapshot(Histogram[] queueTime) {
+        Histogram.Snapshot[] s = new Histogram.Snapshot[queueTime.length];
+        for (int i = 0; i < s.length; i++) {
+            s[i] = queueTime[i].snapshot();
+        }
+        return s;
+    }
+
+    private void enqueue(Runnable r) {
+        int i = PrioritizedTask.priorityOf(r).ordinal();
+        Node n = new Node(r, System.nanoTime());
+        if (tails[i] == null) {
+            heads[i] = n;
+        } else {
+            tails[i].next = n;
+        }
+        tails[i] = n;
+        count++;
+        notEmpty.signal();
+    }
+
+    private Runnable dequeue() {
+        int i = best();
+        Node n = unlinkHead(i);
+        queueTime[i].record(System.nanoTime() - n.enqueued);
+        return n.task;
+    }
+
+    /**
+     * @return 下一个出队的优先级，队列为空时返回 -1
+     */
+    private int best() {
+        int best = -1;
+        long bestDeadline = 0;
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            Node h = heads[i];
+            if (h == null) {
+                continue;
+            }
+            long deadline = h.enqueued + i * agingNanos;
+            // 用差值比较，避免 nanoTime 溢出
+            if (best < 0 || deadline - bestDeadline < 0) {
+                best = i;
+                bestDeadline = deadline;
+            }
+        }
+        return best;
+    }
+
+    private Node unlinkHead(int i) {
+        Node n = heads[i];
+        unlink(i, null, n);
+        return n;
+    }
+
+    private void unlink(int i, @Nullable Node prev, Node n) {
+        if (prev == null) {
+            heads[i] = n.next;
+        } else {
+            prev.next = n.next;
+        }
+        if (tails[i] == n) {
+            tails[i] = prev;
+        }
+        n.next = null;
+        count--;
+        notFull.signal();
+    }
+
+    static final class Node {
+        final Runnable task;
+        final long enqueued;
+        Node next;
+
+        Node(Runnable task, long enqueued) {
+            this.task = task;
+            this.enqueued = enqueued;
+        }
+    }
+
+    final class Itr implements Iterator<Runnable> {
+        private final List<Runnable> snapshot;
+        private int cursor;
+        @Nullable
+        private Runnable last;
+
+        Itr(List<Runnable> snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return cursor < snapshot.size();
+        }
+
+        @Override
+        public Runnable next() {
+            if (cursor >= snapshot.size()) {
+                throw new NoSuchElementException();
+            }
+            return last = snapshot.get(cursor++);
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            PriorityTaskQueue.this.remove(last);
+            last = null;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.dieyidezui.valuable.shedulers;
+
+/**
+ * 内置 Scheduler 的 schedule 钩子，通过 {@link Schedulers#setHook(SchedulerHook)} 安装，未安装时没有额外开销。
+ * 不影响直接使用 {@link com.dieyidezui.valuable.Scheduler#executor()} 提交的任务。
+ * created by dieyidezui on 2018/12/24.
+ */
+public interface SchedulerHook {
+
+    /**
+     * 每次 schedule 时调用，返回实际提交给线程池的 Runnable。
+     * 包装时如果 command 是 {@link com.dieyidezui.valuable.internal.util.Rejectable}，返回值也应该实现并转发，否则被丢弃的 Valuable 不会结束
+     *
+     * @param scheduler main, io, computation, single, newThread 等
+     */
+    Runnable onSchedule(String scheduler, Runnable command);
+
+    /**
+     * onSchedule 返回的 Runnable 被线程池拒绝
+     */
+    void onRejected(String scheduler, Runnable command);
+}
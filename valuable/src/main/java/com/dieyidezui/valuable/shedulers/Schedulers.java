@@ -5,12 +5,20 @@ import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import com.dieyidezui.valuable.Cancelable;
 import com.dieyidezui.valuable.Scheduler;
+import com.dieyidezui.valuable.exceptions.OverloadException;
 import com.dieyidezui.valuable.function.Supplier;
 import com.dieyidezui.valuable.internal.util.Functions;
+import com.dieyidezui.valuable.internal.util.ObjectHelper;
+import com.dieyidezui.valuable.metrics.Histogram;
 
+import java.util.ArrayDeque;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -25,12 +33,17 @@ public class Schedulers {
 
     private static final Scheduler MAIN;
 
+    private static final Scheduler MAIN_IMMEDIATE;
+
     private static final Scheduler UPSTREAM;
 
     private static final Scheduler IMMEDIATE;
 
+    private static final Scheduler TRAMPOLINE;
+
     private static final Scheduler IO;
 
+    private static final Scheduler VIRTUAL_IO;
 
     private static final Scheduler COMPUTATION;
 
@@ -38,37 +51,87 @@ public class Schedulers {
 
     private static final Scheduler NEW_THREAD;
 
+    /**
+     * 按 {@link Priority#ordinal()} 排列，NORMAL 即 IO / COMPUTATION 本身
+     */
+    private static final Scheduler[] IO_PRIORITIES;
+
+    private static final Scheduler[] COMPUTATION_PRIORITIES;
+
+    /**
+     * 低优先级的任务每等待这么久，在队列中提升一级
+     */
+    public static final long AGING_MILLIS = 100;
+
+    /**
+     * 事件循环每次 drain 最多执行这么久，然后让出线程，默认为一帧的一半
+     */
+    public static final long EVENT_LOOP_BUDGET_MILLIS = 8;
+
+    /**
+     * 同一个线程中连续直接执行的最大嵌套深度，超过之后仍然交给 Scheduler，避免栈溢出
+     */
+    public static final int MAX_INLINE_DEPTH = 16;
+
+    private static final ThreadLocal<int[]> INLINE_DEPTH = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    /**
+     * io / computation 的容量配置，需要在第一次使用之前设置，均由 Schedulers.class 保护
+     */
+    private static int ioMaxThreads = Integer.MAX_VALUE;
+    private static int ioQueueCapacity = 0;
+    private static OverloadPolicy ioPolicy = OverloadPolicy.REJECT;
+    private static int computationQueueCapacity = Integer.MAX_VALUE;
+    private static OverloadPolicy computationPolicy = OverloadPolicy.REJECT;
+
+    @Nullable
+    private static volatile SchedulerHook hook;
+
+    private static ThreadPoolExecutor ioPool;
+    private static Overload ioOverload;
+    private static WorkStealingExecutor computationPool;
+    private static final Histogram[] ioQueueTime = PriorityTaskQueue.newQueueTime();
+    private static final Histogram[] computationQueueTime = PriorityTaskQueue.newQueueTime();
 
     static {
-        MAIN = new SchedulerImpl(() -> HandlerHolder.MAIN_HANDLER::post);
+        MAIN = new SchedulerImpl("main", () -> new EventLoopExecutor(HandlerHolder.MAIN_HANDLER::post,
+                TimeUnit.MILLISECONDS.toNanos(EVENT_LOOP_BUDGET_MILLIS), Looper.getMainLooper().getThread()));
+
+        MAIN_IMMEDIATE = new ImmediateSchedulerImpl((SchedulerImpl) MAIN);
 
-        UPSTREAM = new SchedulerImpl(() -> r -> {
+        UPSTREAM = new SchedulerImpl("upstream", () -> r -> {
             throw new UnsupportedOperationException("Can't use Schedulers.upStream() directly.");
         });
 
-        IMMEDIATE = new SchedulerImpl(() -> Runnable::run);
+        IMMEDIATE = new SchedulerImpl("immediate", () -> Runnable::run);
 
-        IO = new SchedulerImpl(() -> new ThreadPoolExecutor(0, Integer.MAX_VALUE,
-                60L, TimeUnit.SECONDS,
-                new SynchronousQueue<>(),
-                new ValuableThreadFactory("IO")));
+        TRAMPOLINE = new SchedulerImpl("trampoline", TrampolineExecutor::new);
 
-        COMPUTATION = new SchedulerImpl(() -> {
-            int available = Runtime.getRuntime().availableProcessors();
-            return new ThreadPoolExecutor(available, available,
-                    0L, TimeUnit.MILLISECONDS,
-                    new LinkedBlockingQueue<>(),
-                    new ValuableThreadFactory("Computation"));
-        });
+        IO = new SchedulerImpl("io", Schedulers::createIo, true);
+
+        VIRTUAL_IO = VirtualThreadHolder.SUPPORTED
+                ? new SchedulerImpl("virtualIo", VirtualThreadHolder::executor)
+                : IO;
+
+        COMPUTATION = new SchedulerImpl("computation", Schedulers::createComputation, true);
+
+        IO_PRIORITIES = withPriorities((SchedulerImpl) IO);
+
+        COMPUTATION_PRIORITIES = withPriorities((SchedulerImpl) COMPUTATION);
 
 
-        SINGLE = new SchedulerImpl(() -> new ThreadPoolExecutor(1, 1,
+        SINGLE = new SchedulerImpl("single", () -> new ThreadPoolExecutor(1, 1,
                 0L, TimeUnit.MILLISECONDS,
                 new LinkedBlockingQueue<>(),
                 new ValuableThreadFactory("Single")));
 
 
-        NEW_THREAD = new SchedulerImpl(() -> new Executor() {
+        NEW_THREAD = new SchedulerImpl("newThread", () -> new Executor() {
             ThreadFactory factory = new ValuableThreadFactory("New");
 
             @Override
@@ -82,12 +145,63 @@ public class Schedulers {
     }
 
     /**
-     * 主线程
+     * 主线程，回调先进入事件循环的队列，同一时刻只有一个消息在主线程的 Looper 中排队
      */
     public static Scheduler main() {
         return MAIN;
     }
 
+    /**
+     * 和 {@link #main()} 相同，但已经在主线程时直接执行，不再排队，因此可能先于已经排队的回调执行
+     */
+    public static Scheduler mainImmediate() {
+        return MAIN_IMMEDIATE;
+    }
+
+    /**
+     * 已经在 scheduler 的线程中时直接执行，否则交给 scheduler，和 scheduler 相互 equals。
+     * 适用于内置的 main、single、事件循环等有序的 Scheduler，io 和 computation 本身已经会省去回调的线程切换。
+     * 不属于任何线程的 Scheduler（例如 immediate、trampoline）返回自身
+     */
+    public static Scheduler immediate(Scheduler scheduler) {
+        if (scheduler == MAIN) {
+            return MAIN_IMMEDIATE;
+        }
+        if (!(scheduler instanceof SchedulerImpl) || ((SchedulerImpl) scheduler).elide
+                || scheduler == UPSTREAM || scheduler == IMMEDIATE || scheduler == TRAMPOLINE) {
+            return scheduler;
+        }
+        return new ImmediateSchedulerImpl((SchedulerImpl) scheduler);
+    }
+
+    /**
+     * 投递回调时使用：当前线程已经属于 scheduler，并且 scheduler 允许省去线程切换时（io、computation 以及 immediate 变体），
+     * 在当前线程直接执行 r。直接执行的嵌套深度达到 {@link #MAX_INLINE_DEPTH} 时不执行。
+     * 直接执行的任务不经过 {@link SchedulerHook}
+     *
+     * @return false 表示没有执行，需要调用方自行 schedule
+     */
+    public static boolean runInline(Scheduler scheduler, Runnable r) {
+        if (!(scheduler instanceof SchedulerImpl)) {
+            return false;
+        }
+        SchedulerImpl impl = (SchedulerImpl) scheduler;
+        if (!impl.elide || !impl.isCurrentThread()) {
+            return false;
+        }
+        int[] depth = INLINE_DEPTH.get();
+        if (depth[0] >= MAX_INLINE_DEPTH) {
+            return false;
+        }
+        depth[0]++;
+        try {
+            r.run();
+        } finally {
+            depth[0]--;
+        }
+        return true;
+    }
+
     /**
      * 使用上游的 Scheduler
      */
@@ -96,12 +210,21 @@ public class Schedulers {
     }
 
     /**
-     * 如果可能的话，立即执行
+     * 如果可能的话，立即执行，延时调度的任务会在定时器线程执行，需要很快返回
      */
     public static Scheduler immediate() {
         return IMMEDIATE;
     }
 
+    /**
+     * 在当前线程执行，但如果当前线程正在执行 trampoline 的任务，则排到该任务之后，而不是嵌套执行。
+     * 因此同步的长链不会栈溢出，注意不要在 trampoline 的任务中 get() 一个还在排队的 trampoline 任务。
+     * 延时调度的任务和 immediate 一样在定时器线程执行。
+     */
+    public static Scheduler trampoline() {
+        return TRAMPOLINE;
+    }
+
     /**
      * IO密集型的线程池
      */
@@ -109,6 +232,21 @@ public class Schedulers {
         return IO;
     }
 
+    /**
+     * 每个任务一个虚拟线程，适合大量阻塞的任务，需要运行时支持虚拟线程（JDK 21+），否则等同于 {@link #io()}
+     */
+    public static Scheduler virtualIo() {
+        return VIRTUAL_IO;
+    }
+
+    /**
+     * 和 {@link #io()} 使用同一个线程池，但任务按 priority 排队。
+     * io() 默认线程数不限、不排队，优先级只在 {@link #setIoBounds(int, int, OverloadPolicy)} 设置了队列之后才起作用
+     */
+    public static Scheduler io(Priority priority) {
+        return IO_PRIORITIES[priority.ordinal()];
+    }
+
     /**
      * 计算密集型的线程池
      */
@@ -116,6 +254,14 @@ public class Schedulers {
         return COMPUTATION;
     }
 
+    /**
+     * 和 {@link #computation()} 使用同一个线程池，但任务按 priority 排队。
+     * 和 computation() 相互 equals，后续操作已经在该线程池上时仍然直接执行，不再排队
+     */
+    public static Scheduler computation(Priority priority) {
+        return COMPUTATION_PRIORITIES[priority.ordinal()];
+    }
+
     /**
      * 在一个非主程的单线程执行
      */
@@ -130,28 +276,446 @@ public class Schedulers {
         return NEW_THREAD;
     }
 
+    /**
+     * 限制 io() 的线程数和队列长度，必须在第一次使用 io() 之前调用，默认线程数不限
+     *
+     * @param queueCapacity 线程都在忙时最多排队的任务数，可以为 0
+     */
+    public static synchronized void setIoBounds(int maxThreads, int queueCapacity, OverloadPolicy policy) {
+        if (ioPool != null) {
+            throw new IllegalStateException("Schedulers.io() is already in use.");
+        }
+        if (maxThreads <= 0 || queueCapacity < 0) {
+            throw new IllegalArgumentException();
+        }
+        ioMaxThreads = maxThreads;
+        ioQueueCapacity = queueCapacity;
+        ioPolicy = ObjectHelper.requireNonNull(policy);
+    }
+
+    /**
+     * 限制 computation() 的队列长度，必须在第一次使用 computation() 之前调用，默认不限
+     *
+     * @param queueCapacity 每个 worker 的队列容量，总容量约为 queueCapacity 乘以 CPU 核数
+     */
+    public static synchronized void setComputationBounds(int queueCapacity, OverloadPolicy policy) {
+        if (computationPool != null) {
+            throw new IllegalStateException("Schedulers.computation() is already in use.");
+        }
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+        computationQueueCapacity = queueCapacity;
+        computationPolicy = ObjectHelper.requireNonNull(policy);
+    }
+
+    public static synchronized PoolStats ioStats() {
+        if (ioPool == null) {
+            return new PoolStats(0, 0, 0, 0, 0, PriorityTaskQueue.snapshot(ioQueueTime));
+        }
+        return ioOverload.stats(ioPool.getQueue().size(), ioQueueTime);
+    }
+
+    public static synchronized PoolStats computationStats() {
+        if (computationPool == null) {
+            return new PoolStats(0, 0, 0, 0, 0, PriorityTaskQueue.snapshot(computationQueueTime));
+        }
+        return computationPool.stats();
+    }
+
+    /**
+     * 安装 schedule 钩子，用于统计或追踪，传 null 则移除
+     *
+     * @see com.dieyidezui.valuable.metrics.SchedulerMetrics
+     */
+    public static void setHook(@Nullable SchedulerHook hook) {
+        Schedulers.hook = hook;
+    }
+
+    private static synchronized Executor createIo() {
+        Overload overload = new Overload("IO", ioPolicy);
+        ioOverload = overload;
+        ioPool = newIoPool("IO", ioMaxThreads, ioQueueCapacity, overload, ioQueueTime);
+        return ioPool;
+    }
+
+    private static synchronized Executor createComputation() {
+        computationPool = newComputationPool("Computation", Runtime.getRuntime().availableProcessors(),
+                computationQueueCapacity, new Overload("Computation", computationPolicy), computationQueueTime);
+        return computationPool;
+    }
+
+    /**
+     * io() 使用的线程池，单独创建用于测试过载策略，参数见 {@link #setIoBounds(int, int, OverloadPolicy)}
+     */
+    static ThreadPoolExecutor newIoPool(String name, int maxThreads, int queueCapacity, Overload overload,
+                                        Histogram[] queueTime) {
+        if (maxThreads == Integer.MAX_VALUE) {
+            return new SkippingThreadPoolExecutor(0, Integer.MAX_VALUE,
+                    new SynchronousQueue<>(), new ValuableThreadFactory(name), overload);
+        }
+        ThreadPoolExecutor pool = new SkippingThreadPoolExecutor(maxThreads, maxThreads,
+                queueCapacity == 0 ? new SynchronousQueue<>()
+                        : new PriorityTaskQueue(queueCapacity, TimeUnit.MILLISECONDS.toNanos(AGING_MILLIS), queueTime),
+                new ValuableThreadFactory(name), overload);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * computation() 使用的线程池，单独创建用于测试过载策略
+     */
+    static WorkStealingExecutor newComputationPool(String name, int parallelism, int queueCapacity, Overload overload,
+                                                   Histogram[] queueTime) {
+        return new WorkStealingExecutor(parallelism, queueCapacity, TimeUnit.MILLISECONDS.toNanos(AGING_MILLIS),
+                queueTime, overload, new ValuableThreadFactory(name));
+    }
+
+    /**
+     * 用 Executor 创建 Scheduler，延时和周期调度同样由共享的定时器实现
+     *
+     * @param name 用于 {@link SchedulerHook}
+     */
+    public static Scheduler from(String name, Executor executor) {
+        ObjectHelper.requireNonNull(name);
+        ObjectHelper.requireNonNull(executor);
+        return new SchedulerImpl(name, () -> executor);
+    }
+
+    /**
+     * @return 和 scheduler 共享线程池、优先级为 priority 的 Scheduler，不支持优先级的 Scheduler 返回自身
+     */
+    public static Scheduler withPriority(Scheduler scheduler, Priority priority) {
+        ObjectHelper.requireNonNull(priority);
+        if (IO.equals(scheduler)) {
+            return io(priority);
+        }
+        if (COMPUTATION.equals(scheduler)) {
+            return computation(priority);
+        }
+        return scheduler;
+    }
+
+    public static Priority priorityOf(Scheduler scheduler) {
+        return scheduler instanceof PrioritySchedulerImpl ? ((PrioritySchedulerImpl) scheduler).priority : Priority.NORMAL;
+    }
+
+    private static Scheduler[] withPriorities(SchedulerImpl base) {
+        Priority[] priorities = Priority.values();
+        Scheduler[] schedulers = new Scheduler[priorities.length];
+        for (Priority p : priorities) {
+            schedulers[p.ordinal()] = p == Priority.NORMAL ? base : new PrioritySchedulerImpl(base, p);
+        }
+        return schedulers;
+    }
+
+    /**
+     * 事件循环：任务进入自己的队列，队列非空时只向 poster 投递一个消息，每个消息最多执行 budget 后让出。
+     * poster 通常是某个线程的 Handler::post，{@link #main()} 即是主线程的事件循环
+     */
+    public static Scheduler eventLoop(String name, Executor poster, long budget, TimeUnit unit) {
+        ObjectHelper.requireNonNull(name);
+        ObjectHelper.requireNonNull(poster);
+        EventLoopExecutor loop = new EventLoopExecutor(poster, unit.toNanos(budget), null);
+        return new SchedulerImpl(name, () -> loop);
+    }
+
+    /**
+     * 在一个新的普通线程上运行的事件循环，不依赖 Looper
+     */
+    public static Scheduler newEventLoop(String name) {
+        ObjectHelper.requireNonNull(name);
+        return eventLoop(name, Executors.newSingleThreadExecutor(new ValuableThreadFactory(name)),
+                EVENT_LOOP_BUDGET_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
     public static Handler mainHandler() {
         return HandlerHolder.MAIN_HANDLER;
     }
 
     static class SchedulerImpl implements Scheduler {
 
-
+        final String name;
         Supplier<Executor> supplier;
+        /**
+         * 是否允许在自己的线程中直接执行回调，只用于不保证顺序的线程池和 immediate 变体
+         */
+        final boolean elide;
+
+        SchedulerImpl(String name, Supplier<Executor> supplier) {
+            this(name, supplier, false);
+        }
 
-        SchedulerImpl(Supplier<Executor> supplier) {
+        SchedulerImpl(String name, Supplier<Executor> supplier, boolean elide) {
+            this.name = name;
             this.supplier = Functions.cache(supplier);
+            this.elide = elide;
         }
 
         @Override
         public void schedule(@NonNull Runnable command) {
-            supplier.get().execute(command);
+            SchedulerHook h = hook;
+            if (h == null) {
+                supplier.get().execute(decorate(command));
+                return;
+            }
+            Runnable r = h.onSchedule(name, command);
+            try {
+                supplier.get().execute(decorate(r));
+            } catch (OverloadException e) {
+                h.onRejected(name, r);
+                throw e;
+            }
+        }
+
+        @Override
+        public Cancelable schedule(@NonNull Runnable command, long delay, @NonNull TimeUnit unit) {
+            checkTimed();
+            return new DelayedTask(this, ObjectHelper.requireNonNull(command), delay, unit);
+        }
+
+        @Override
+        public Cancelable schedulePeriodically(@NonNull Runnable command, long initialDelay, long period,
+                                               @NonNull TimeUnit unit) {
+            checkTimed();
+            return new PeriodicTask(this, ObjectHelper.requireNonNull(command), initialDelay, period, unit);
         }
 
         @Override
         public Executor executor() {
             return supplier.get();
         }
+
+        /**
+         * 钩子包装之后、提交给线程池之前调用
+         */
+        Runnable decorate(Runnable command) {
+            return command;
+        }
+
+        /**
+         * 当前线程是否属于该 Scheduler 的线程池
+         */
+        boolean isCurrentThread() {
+            Executor e = executor();
+            if (e instanceof ThreadBound) {
+                return ((ThreadBound) e).isCurrentThread();
+            }
+            if (e instanceof ThreadPoolExecutor) {
+                ThreadFactory f = ((ThreadPoolExecutor) e).getThreadFactory();
+                return f instanceof ValuableThreadFactory && ((ValuableThreadFactory) f).isCurrentThread();
+            }
+            return false;
+        }
+
+        /**
+         * 使用同一个线程池的 Scheduler 的代表
+         */
+        SchedulerImpl root() {
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || o instanceof SchedulerImpl && ((SchedulerImpl) o).root() == root();
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(root());
+        }
+
+        private void checkTimed() {
+            if (this == UPSTREAM) {
+                throw new UnsupportedOperationException("Can't use Schedulers.upStream() directly.");
+            }
+        }
+    }
+
+    /**
+     * 和 base 共享线程池和钩子中的名字，提交的任务带上优先级
+     */
+    static final class PrioritySchedulerImpl extends SchedulerImpl {
+
+        private final SchedulerImpl base;
+        private final Priority priority;
+
+        PrioritySchedulerImpl(SchedulerImpl base, Priority priority) {
+            super(base.name, base.supplier, base.elide);
+            this.base = base;
+            this.priority = priority;
+        }
+
+        @Override
+        Runnable decorate(Runnable command) {
+            return new PrioritizedTask(command, priority);
+        }
+
+        @Override
+        SchedulerImpl root() {
+            return base;
+        }
+    }
+
+    /**
+     * 和 base 共享线程池，已经在 base 的线程中时直接执行
+     */
+    static final class ImmediateSchedulerImpl extends SchedulerImpl {
+
+        private final SchedulerImpl base;
+
+        ImmediateSchedulerImpl(SchedulerImpl base) {
+            super(base.name, base.supplier, true);
+            this.base = base;
+        }
+
+        @Override
+        public void schedule(@NonNull Runnable command) {
+            if (!runInline(this, command)) {
+                super.schedule(command);
+            }
+        }
+
+        @Override
+        Runnable decorate(Runnable command) {
+            return base.decorate(command);
+        }
+
+        @Override
+        SchedulerImpl root() {
+            return base.root();
+        }
+    }
+
+    /**
+     * 执行前统计排队期间被取消的任务，任务本身会跳过 callable
+     */
+    static class SkippingThreadPoolExecutor extends ThreadPoolExecutor {
+
+        private final Overload overload;
+
+        SkippingThreadPoolExecutor(int coreSize, int maxSize, BlockingQueue<Runnable> queue,
+                                   ThreadFactory factory, Overload overload) {
+            super(coreSize, maxSize, 60L, TimeUnit.SECONDS, queue, factory, new OverloadHandler(overload));
+            this.overload = overload;
+        }
+
+        @Override
+        protected void beforeExecute(Thread t, Runnable r) {
+            overload.skip(r);
+        }
+    }
+
+    static class OverloadHandler implements RejectedExecutionHandler {
+
+        private final Overload overload;
+
+        OverloadHandler(Overload overload) {
+            this.overload = overload;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (!executor.isShutdown() && overload.purge(executor.getQueue())) {
+                executor.execute(r);
+                return;
+            }
+            switch (overload.policy) {
+                case CALLER_RUNS:
+                    overload.callerRuns(r);
+                    break;
+                case REJECT:
+                    throw overload.reject();
+                case DROP_OLDEST:
+                    BlockingQueue<Runnable> queue = executor.getQueue();
+                    Runnable oldest = queue instanceof PriorityTaskQueue
+                            ? ((PriorityTaskQueue) queue).pollLowest() : queue.poll();
+                    if (oldest == null) {
+                        overload.drop(r);
+                    } else {
+                        overload.drop(oldest);
+                        executor.execute(r);
+                    }
+                    break;
+            }
+        }
+    }
+
+    static class TrampolineExecutor implements Executor {
+
+        private final ThreadLocal<Trampoline> local = new ThreadLocal<Trampoline>() {
+            @Override
+            protected Trampoline initialValue() {
+                return new Trampoline();
+            }
+        };
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            Trampoline t = local.get();
+            if (t.draining) {
+                t.queue.offer(command);
+                return;
+            }
+            t.draining = true;
+            Throwable error = null;
+            try {
+                do {
+                    // 一个任务的异常（包括 Error）不影响后面排队的任务，最后抛出第一个异常，
+                    // 否则剩下的任务会留在队列中，等到这个线程下一次使用 trampoline 时才乱序执行
+                    try {
+                        command.run();
+                    } catch (RuntimeException | Error e) {
+                        if (error == null) {
+                            error = e;
+                        }
+                    }
+                } while ((command = t.queue.poll()) != null);
+            } finally {
+                t.draining = false;
+            }
+            if (error instanceof Error) {
+                throw (Error) error;
+            }
+            if (error != null) {
+                throw (RuntimeException) error;
+            }
+        }
+
+        static class Trampoline {
+            final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+            boolean draining;
+        }
+    }
+
+    /**
+     * 通过反射使用虚拟线程，Android 和低版本的 JVM 上 SUPPORTED 为 false。
+     * JDK 19/20 未开启 preview 时 ofVirtual 存在但调用时抛出异常，因此在探测时直接创建 Executor，失败则视为不支持
+     */
+    static class VirtualThreadHolder {
+        static final boolean SUPPORTED;
+        @Nullable
+        private static final Executor EXECUTOR;
+
+        static {
+            Executor executor;
+            try {
+                Class<?> builder = Class.forName("java.lang.Thread$Builder");
+                Object ofVirtual = Thread.class.getMethod("ofVirtual").invoke(null);
+                Object named = builder.getMethod("name", String.class, long.class).invoke(ofVirtual, "IO-virtual-", 1L);
+                Object factory = builder.getMethod("factory").invoke(named);
+                executor = (Executor) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                        .invoke(null, factory);
+            } catch (Exception ignored) {
+                executor = null;
+            }
+            EXECUTOR = executor;
+            SUPPORTED = executor != null;
+        }
+
+        static Executor executor() {
+            return EXECUTOR;
+        }
     }
 
     static class HandlerHolder {
@@ -175,13 +739,21 @@ public class Schedulers {
         @Override
         public Thread newThread(@NonNull Runnable r) {
             return new ValuableThread(r,
-                    namePrefix + threadNumber.getAndIncrement());
+                    namePrefix + threadNumber.getAndIncrement(), this);
+        }
+
+        boolean isCurrentThread() {
+            Thread t = Thread.currentThread();
+            return t instanceof ValuableThread && ((ValuableThread) t).factory == this;
         }
 
         static class ValuableThread extends Thread {
 
-            ValuableThread(@Nullable Runnable r, String name) {
+            final ValuableThreadFactory factory;
+
+            ValuableThread(@Nullable Runnable r, String name, ValuableThreadFactory factory) {
                 super(null, r, name, 0);
+                this.factory = factory;
                 setDaemon(false);
             }
         }
@@ -0,0 +1,10 @@
+package com.dieyidezui.valuable.shedulers;
+
+/**
+ * 能够判断当前线程是否属于自己的 Executor，用于省去不必要的线程切换
+ * created by dieyidezui on 2019/1/18.
+ */
+interface ThreadBound {
+
+    boolean isCurrentThread();
+}
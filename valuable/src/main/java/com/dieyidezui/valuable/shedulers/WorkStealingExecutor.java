@@ -0,0 +1,213 @@
+package com.dieyidezui.valuable.shedulers;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.dieyidezui.valuable.internal.util.Skippables;
+import com.dieyidezui.valuable.metrics.Histogram;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 每个 worker 有自己的队列，没有全局共享的队列：
+ * worker 线程提交的任务（通常是 map 等后续操作）放到自己的 local 队列，按提交顺序先进先出，优先于 inbox 执行；
+ * 其他线程提交的任务以及低优先级的任务轮流放到各个 worker 的 inbox，inbox 按 {@link Priority} 排序并老化，
+ * worker 每执行 {@link #INBOX_INTERVAL} 个 local 任务就先看一次 inbox，所有 worker 都忙于自己提交的任务时 inbox 也不会饿死；
+ * 空闲的 worker 先从其他 worker 的 inbox 窃取，再从 local 窃取。
+ * 每个队列的容量为 capacity，满了之后先移除其中已被取消的任务，仍然满则按 {@link OverloadPolicy} 处理。
+ * 不使用 ForkJoinPool 是因为 minSdkVersion 为 15。
+ * created by dieyidezui on 2018/12/20.
+ */
+class WorkStealingExecutor implements Executor, ThreadBound {
+
+    static final int INBOX_INTERVAL = 8;
+
+    private final Worker[] workers;
+    private final Overload overload;
+    private final Histogram[] queueTime;
+    private final ConcurrentLinkedQueue<Worker> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger nextWorker = new AtomicInteger();
+    private final ThreadLocal<Worker> current = new ThreadLocal<>();
+
+    WorkStealingExecutor(int parallelism, int capacity, long agingNanos, Histogram[] queueTime,
+                         Overload overload, ThreadFactory factory) {
+        this.overload = overload;
+        this.queueTime = queueTime;
+        workers = new Worker[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            workers[i] = new Worker(i, capacity, agingNanos);
+        }
+        for (Worker w : workers) {
+            w.thread = factory.newThread(w);
+            w.thread.start();
+        }
+    }
+
+    @Override
+    public void execute(@NonNull Runnable command) {
+        Worker w = current.get();
+        // 低优先级的任务即使来自 worker 也进入 inbox 排队，不插到其他任务前面
+        boolean local = w != null && PrioritizedTask.priorityOf(command) != Priority.LOW;
+        if (!local) {
+            w = workers[(nextWorker.getAndIncrement() & Integer.MAX_VALUE) % workers.length];
+        }
+        if (!w.offer(command, local)
+                && !(w.purge(local) && w.offer(command, local))) {
+            switch (overload.policy) {
+                case CALLER_RUNS:
+                    overload.callerRuns(command);
+                    return;
+                case REJECT:
+                    throw overload.reject();
+                case DROP_OLDEST:
+                    Runnable oldest = local ? w.local.poll() : w.inbox.pollLowest();
+                    if (oldest != null) {
+                        overload.drop(oldest);
+                    }
+                    if (!w.offer(command, local)) {
+                        overload.drop(command);
+                        return;
+                    }
+                    break;
+            }
+        }
+        Worker sleeper = idle.poll();
+        if (sleeper != null) {
+            LockSupport.unpark(sleeper.thread);
+        }
+    }
+
+    @Override
+    public boolean isCurrentThread() {
+        return current.get() != null;
+    }
+
+    PoolStats stats() {
+        int queued = 0;
+        for (Worker w : workers) {
+            queued += w.local.size() + w.inbox.size();
+        }
+        return overload.stats(queued, queueTime);
+    }
+
+    final class Worker implements Runnable {
+        final int index;
+        final BlockingQueue<Runnable> local;
+        final PriorityTaskQueue inbox;
+        Thread thread;
+        /**
+         * 只在自己的线程访问
+         */
+        private long localPurged = -1;
+        /**
+         * 连续执行的 local 任务数，只在自己的线程访问
+         */
+        private int localRuns;
+
+        Worker(int index, int capacity, long agingNanos) {
+            this.index = index;
+            local = new LinkedBlockingQueue<>(capacity);
+            inbox = new PriorityTaskQueue(capacity, agingNanos, queueTime);
+        }
+
+        boolean offer(Runnable command, boolean local) {
+            return local ? this.local.offer(command) : inbox.offer(command);
+        }
+
+        /**
+         * 本地队列只有自己会放入，上次清理之后没有任务变得可以跳过时不再遍历
+         */
+        boolean purge(boolean local) {
+            if (!local) {
+                return overload.purge(inbox);
+            }
+            long epoch = Skippables.epoch();
+            if (epoch == localPurged) {
+                return false;
+            }
+            localPurged = epoch;
+            return overload.purge(this.local);
+        }
+
+        /**
+         * 工作线程数量固定且不会补充，任务抛出的任何异常（包括 Error）都不能终止工作线程
+         */
+        @Override
+        public void run() {
+            current.set(this);
+            for (; ; ) {
+                Runnable r = awaitWork();
+                if (overload.skip(r)) {
+                    continue;
+                }
+                try {
+                    r.run();
+                } catch (Throwable e) {
+                    Thread t = Thread.currentThread();
+                    Thread.UncaughtExceptionHandler handler = t.getUncaughtExceptionHandler();
+                    if (handler != null) {
+                        handler.uncaughtException(t, e);
+                    }
+                }
+            }
+        }
+
+        /**
+         * 先登记为空闲再检查一次，保证 execute 要么被这次检查看到，要么能唤醒自己
+         */
+        private Runnable awaitWork() {
+            for (; ; ) {
+                Runnable r = find();
+                if (r != null) {
+                    return r;
+                }
+                idle.offer(this);
+                r = find();
+                if (r == null) {
+                    LockSupport.park(this);
+                }
+                idle.remove(this);
+                if (r != null) {
+                    return r;
+                }
+            }
+        }
+
+        @Nullable
+        private Runnable find() {
+            Runnable r = null;
+            if (++localRuns >= INBOX_INTERVAL) {
+                localRuns = 0;
+                r = inbox.poll();
+            }
+            if (r == null) {
+                r = local.poll();
+            }
+            if (r == null) {
+                localRuns = 0;
+                r = inbox.poll();
+            }
+            if (r != null) {
+                return r;
+            }
+            int n = workers.length;
+            for (int i = 1; i < n; i++) {
+                Worker victim = workers[(index + i) % n];
+                r = victim.inbox.poll();
+                if (r == null) {
+                    r = victim.local.poll();
+                }
+                if (r != null) {
+                    return r;
+                }
+            }
+            return null;
+        }
+    }
+}